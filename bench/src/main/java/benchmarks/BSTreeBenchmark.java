@@ -0,0 +1,266 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import implementations.BSTree;
+import implementations.FrozenTree;
+import implementations.WordTokenizer;
+import implementations.WordTracker.WordInfo;
+
+/**
+ * BSTreeBenchmark measures the basic tree operations on the vocabulary of
+ * res/test3.txt.
+ *
+ *  java -jar bench/target/benchmarks.jar BSTreeBenchmark
+ *
+ * At scale s every word of the input is used s times with a different suffix,
+ * so the tree holds s times the vocabulary. Three key orders are measured:
+ * random (shuffled) and Zipfian, where lookups and inserts are drawn with the
+ * skew of word frequencies in natural text, in {@link Scaled}; and sorted,
+ * which degenerates the tree into a list, in {@link Sorted}, only at scale 1
+ * where the recursive insert still fits on the stack. Lookups and iterations
+ * run over a tree built from the same keys, and lookups also run over its
+ * frozen copy (see {@link BSTree#freeze()}); each op is one lookup, one
+ * complete build or one complete traversal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class BSTreeBenchmark {
+	private static final long SEED = 42;
+	private static final int LOOKUPS = 1 << 16;
+
+	/** Input the vocabulary is taken from, relative to the project root. */
+	@Param("res/test3.txt")
+	public String input;
+
+	private WordInfo[] inserts;
+	private WordInfo[] lookups;
+	private WordInfo[] misses;
+	private BSTree<WordInfo> tree;
+	private FrozenTree<WordInfo> frozen;
+	private int nextLookup;
+	private int nextMiss;
+
+	/**
+	 * Random and Zipfian keys at every scale.
+	 */
+	public static class Scaled extends BSTreeBenchmark {
+		/** Number of suffixed copies of the vocabulary. */
+		@Param({ "1", "4", "16" })
+		public int scale;
+
+		/** Key order: random or zipf. */
+		@Param({ "random", "zipf" })
+		public String order;
+
+		@Override
+		int scale() {
+			return scale;
+		}
+
+		@Override
+		WordInfo[] order(WordInfo[] keys) {
+			if (order.equals("zipf"))
+				return zipfian(keys, LOOKUPS, new Random(SEED));
+			Collections.shuffle(Arrays.asList(keys), new Random(SEED));
+			return keys;
+		}
+	}
+
+	/**
+	 * Keys in ascending order, at scale 1.
+	 */
+	public static class Sorted extends BSTreeBenchmark {
+		@Override
+		int scale() {
+			return 1;
+		}
+
+		@Override
+		WordInfo[] order(WordInfo[] keys) {
+			Arrays.sort(keys);
+			return keys;
+		}
+	}
+
+	// Scale factor of the keys
+	abstract int scale();
+
+	// Arranges the keys (most frequent first) in the order they are inserted and looked up in
+	abstract WordInfo[] order(WordInfo[] keys);
+
+	@Setup
+	public void setUp() throws IOException {
+		List<String> vocabulary = vocabulary(input);
+		List<String> words = scaled(vocabulary, scale());
+		inserts = order(keys(words));
+		lookups = inserts;
+		List<String> absent = scaled(vocabulary, scale() + 1);
+		absent.removeAll(new HashSet<>(words));
+		misses = keys(absent);
+		tree = build(inserts);
+		frozen = tree.freeze();
+	}
+
+	@Benchmark
+	public BSTree<WordInfo> add() {
+		return build(inserts);
+	}
+
+	@Benchmark
+	public Object searchHit() {
+		return tree.search(nextLookup());
+	}
+
+	@Benchmark
+	public Object searchMiss() {
+		return tree.search(nextMiss());
+	}
+
+	@Benchmark
+	public boolean containsHit() {
+		return tree.contains(nextLookup());
+	}
+
+	@Benchmark
+	public WordInfo frozenSearchHit() {
+		return frozen.search(nextLookup());
+	}
+
+	@Benchmark
+	public WordInfo frozenSearchMiss() {
+		return frozen.search(nextMiss());
+	}
+
+	@Benchmark
+	public void inorderIterator(Blackhole sink) {
+		drain(tree.inorderIterator(), sink);
+	}
+
+	@Benchmark
+	public void preorderIterator(Blackhole sink) {
+		drain(tree.preorderIterator(), sink);
+	}
+
+	@Benchmark
+	public void postorderIterator(Blackhole sink) {
+		drain(tree.postorderIterator(), sink);
+	}
+
+	private WordInfo nextLookup() {
+		if (nextLookup == lookups.length)
+			nextLookup = 0;
+		return lookups[nextLookup++];
+	}
+
+	private WordInfo nextMiss() {
+		if (nextMiss == misses.length)
+			nextMiss = 0;
+		return misses[nextMiss++];
+	}
+
+	private static BSTree<WordInfo> build(WordInfo[] keys) {
+		BSTree<WordInfo> tree = new BSTree<>();
+		for (WordInfo key : keys) {
+			tree.add(key);
+		}
+		return tree;
+	}
+
+	private static void drain(utilities.Iterator<WordInfo> it, Blackhole sink) {
+		while (it.hasNext()) {
+			sink.consume(it.next());
+		}
+	}
+
+	/**
+	 * Returns the distinct words of a file, most frequent first, tokenized the
+	 * same way WordTracker ingests it.
+	 */
+	static List<String> vocabulary(String file) throws IOException {
+		Map<String, Integer> counts = new HashMap<>();
+		WordTokenizer tokenizer = new WordTokenizer(
+				(buf, len, line) -> counts.merge(new String(buf, 0, len), 1, Integer::sum));
+		tokenizer.scan(ByteBuffer.wrap(Files.readAllBytes(Paths.get(file))));
+		tokenizer.finish();
+		List<String> words = new ArrayList<>(counts.keySet());
+		words.sort((a, b) -> counts.get(b) - counts.get(a) != 0 ? counts.get(b) - counts.get(a) : a.compareTo(b));
+		return words;
+	}
+
+	// Repeats the vocabulary s times, suffixing the copies; a copy that happens to
+	// spell an existing word is dropped so all words stay distinct
+	static List<String> scaled(List<String> vocabulary, int scale) {
+		Set<String> words = new LinkedHashSet<>(vocabulary.size() * scale * 2);
+		for (int copy = 0; copy < scale; copy++) {
+			for (String word : vocabulary) {
+				words.add(word + suffix(copy));
+			}
+		}
+		return new ArrayList<>(words);
+	}
+
+	// "", "a", "b", ..., "z", "ba", ... : letters only, like real words
+	private static String suffix(int copy) {
+		StringBuilder sb = new StringBuilder();
+		for (int c = copy; c > 0; c /= 26) {
+			sb.insert(0, (char) ('a' + c % 26));
+		}
+		return sb.toString();
+	}
+
+	private static WordInfo[] keys(List<String> words) {
+		WordInfo[] keys = new WordInfo[words.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = new WordInfo(words.get(i));
+		}
+		return keys;
+	}
+
+	// Draws n keys with probability proportional to 1/rank (keys are ordered by frequency)
+	private static WordInfo[] zipfian(WordInfo[] ranked, int n, Random random) {
+		double[] cumulative = new double[ranked.length];
+		double total = 0;
+		for (int i = 0; i < ranked.length; i++) {
+			total += 1.0 / (i + 1);
+			cumulative[i] = total;
+		}
+		WordInfo[] drawn = new WordInfo[n];
+		for (int i = 0; i < n; i++) {
+			int pos = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+			drawn[i] = ranked[Math.min(pos < 0 ? -pos - 1 : pos, ranked.length - 1)];
+		}
+		return drawn;
+	}
+}
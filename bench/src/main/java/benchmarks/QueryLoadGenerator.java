@@ -0,0 +1,131 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import implementations.WordTokenizer;
+import implementations.WordTrackerServer;
+
+/**
+ * QueryLoadGenerator fires concurrent -q lookups at a running WordTracker
+ * server and reports throughput and latency percentiles.
+ *
+ *  java -cp bench/target/benchmarks.jar benchmarks.QueryLoadGenerator [-port <n>] [-clients <n>] [-requests <n>] [-miss <percent>] <words.txt>
+ *
+ * The words to look up are taken from the given text file (tokenized the same
+ * way WordTracker ingests it); -miss sets the share of lookups for words that
+ * are not in the repository. Every client runs on its own (virtual, when
+ * available) thread and opens one connection per request, like the -remote
+ * client does.
+ */
+public class QueryLoadGenerator {
+
+	public static void main(String[] args) throws Exception {
+		int port = WordTrackerServer.DEFAULT_PORT;
+		int clients = 1000;
+		int requests = 20;
+		int missPercent = 20;
+		String wordFile = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-port":
+				port = Integer.parseInt(args[++i]);
+				break;
+			case "-clients":
+				clients = Integer.parseInt(args[++i]);
+				break;
+			case "-requests":
+				requests = Integer.parseInt(args[++i]);
+				break;
+			case "-miss":
+				missPercent = Integer.parseInt(args[++i]);
+				break;
+			default:
+				wordFile = args[i];
+			}
+		}
+		if (wordFile == null) {
+			System.err.println("Usage: QueryLoadGenerator [-port <n>] [-clients <n>] [-requests <n>] [-miss <percent>] <words.txt>");
+			return;
+		}
+
+		Set<String> distinct = new LinkedHashSet<>();
+		WordTokenizer tokenizer = new WordTokenizer((buf, len, line) -> distinct.add(new String(buf, 0, len)));
+		tokenizer.scan(java.nio.ByteBuffer.wrap(Files.readAllBytes(Paths.get(wordFile))));
+		tokenizer.finish();
+		String[] words = distinct.toArray(new String[0]);
+
+		long[] latencies = new long[clients * requests];
+		AtomicInteger next = new AtomicInteger();
+		AtomicInteger failures = new AtomicInteger();
+		ExecutorService pool = WordTrackerServer.newThreadPerTaskExecutor();
+		final int serverPort = port;
+		final int perClient = requests;
+		final int misses = missPercent;
+		long start = System.nanoTime();
+		for (int c = 0; c < clients; c++) {
+			final long seed = c;
+			pool.execute(() -> {
+				Random random = new Random(seed);
+				for (int r = 0; r < perClient; r++) {
+					String word = words[random.nextInt(words.length)];
+					if (random.nextInt(100) < misses)
+						word = word + "zq"; // no tokenized word ends like this in English text
+					long t0 = System.nanoTime();
+					try {
+						query(serverPort, word);
+						latencies[next.getAndIncrement()] = System.nanoTime() - t0;
+					} catch (IOException e) {
+						failures.incrementAndGet();
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.HOURS);
+		long wall = System.nanoTime() - start;
+
+		int n = next.get();
+		long[] done = Arrays.copyOf(latencies, n);
+		Arrays.sort(done);
+		System.out.printf("clients %d, requests %d, failed %d, wall %.1f ms, %.0f req/s%n", clients, n, failures.get(),
+				wall / 1e6, n / (wall / 1e9));
+		if (n > 0) {
+			System.out.printf("latency p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms%n", percentile(done, 50),
+					percentile(done, 90), percentile(done, 99), done[n - 1] / 1e6);
+		}
+	}
+
+	// Sends one -q request and reads the answer to the end
+	private static void query(int port, String word) throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			OutputStream out = socket.getOutputStream();
+			out.write(("-q\t" + word + "\n").getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			InputStream in = socket.getInputStream();
+			byte[] buf = new byte[8192];
+			while (in.read(buf) > 0) {
+				// drain
+			}
+		}
+	}
+
+	// Nearest-rank percentile of sorted nanosecond values, in milliseconds
+	private static double percentile(long[] sorted, int p) {
+		int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)] / 1e6;
+	}
+}
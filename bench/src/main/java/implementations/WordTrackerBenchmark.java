@@ -0,0 +1,181 @@
+package implementations;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import implementations.WordTracker.WordInfo;
+
+/**
+ * WordTrackerBenchmark measures the WordTracker hot paths: tokenizing and
+ * indexing an input file, rendering the reports, saving and loading the
+ * repository and looking words up with and without a {@link WordArena}.
+ * It lives in the implementations package to reach the package-private
+ * steps of {@link WordTracker} directly.
+ *
+ *  java -jar bench/target/benchmarks.jar WordTrackerBenchmark
+ *
+ * At scale s the input is res/test3.txt repeated s times in one temporary
+ * file, so the vocabulary stays the same while the number of occurrences per
+ * word grows with s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordTrackerBenchmark {
+	/** Input file, relative to the project root. */
+	@Param("res/test3.txt")
+	public String input;
+
+	/** Number of times the input is repeated. */
+	@Param({ "1", "4", "16" })
+	public int scale;
+
+	private Path dir;
+	private String path;
+	private BSTree<WordInfo> tree;
+	private Repository repository;
+	private File repo;
+	private List<String> words;
+	private WordInfo[] keys;
+	private Repository strings;
+	private Repository arena;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException, ClassNotFoundException {
+		byte[] text = Files.readAllBytes(Paths.get(input));
+		dir = Files.createTempDirectory("wtbench");
+		Path scaled = dir.resolve("input.txt");
+		try (OutputStream out = Files.newOutputStream(scaled)) {
+			for (int i = 0; i < scale; i++) {
+				out.write(text);
+			}
+		}
+		path = scaled.toString();
+		tree = new BSTree<>();
+		WordTracker.processInputFile(tree, path);
+		repository = new Repository(tree);
+		repo = dir.resolve("repository.ser").toFile();
+		WordTracker.saveRepository(repository, repo);
+
+		// the same lookups with the words held in Strings and in an arena
+		words = new ArrayList<>();
+		utilities.Iterator<WordInfo> it = tree.inorderIterator();
+		while (it.hasNext()) {
+			words.add(it.next().getWord());
+		}
+		Collections.shuffle(words, new Random(42));
+		keys = new WordInfo[words.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = new WordInfo(words.get(i));
+		}
+		strings = WordTracker.loadRepository(repo);
+		arena = WordTracker.loadRepository(repo);
+		arena.useArena();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(Paths.get(path));
+		Files.deleteIfExists(repo.toPath());
+		Files.deleteIfExists(dir);
+	}
+
+	@Benchmark
+	public BSTree<WordInfo> processInputFile() throws IOException {
+		BSTree<WordInfo> local = new BSTree<>();
+		WordTracker.processInputFile(local, path);
+		return local;
+	}
+
+	@Benchmark
+	public Object buildReportPf() throws IOException {
+		return buildReport("-pf");
+	}
+
+	@Benchmark
+	public Object buildReportPl() throws IOException {
+		return buildReport("-pl");
+	}
+
+	@Benchmark
+	public Object buildReportPo() throws IOException {
+		return buildReport("-po");
+	}
+
+	@Benchmark
+	public File saveRepository() throws IOException {
+		WordTracker.saveRepository(repository, repo);
+		return repo;
+	}
+
+	@Benchmark
+	public Repository loadRepository() throws IOException, ClassNotFoundException {
+		return WordTracker.loadRepository(repo);
+	}
+
+	@Benchmark
+	public int wordInfoCompareTo() {
+		int i = next(keys.length - 1);
+		return keys[i].compareTo(keys[i + 1]);
+	}
+
+	@Benchmark
+	public Object searchString() {
+		return strings.getTree().search(new WordInfo(words.get(next(words.size()))));
+	}
+
+	@Benchmark
+	public Object searchArena() {
+		return arena.getTree().search(new WordInfo(words.get(next(words.size()))));
+	}
+
+	// Advances the lookup cursor, wrapping around at length
+	private int next(int length) {
+		if (next >= length)
+			next = 0;
+		return next++;
+	}
+
+	private Object buildReport(String option) throws IOException {
+		WordTracker.ReportTarget target = new WordTracker.ReportTarget(option, new NullOutputStream(), null, null);
+		WordTracker.buildReport(tree, Collections.singletonList(target));
+		return target;
+	}
+
+	// Discards the report so only the formatting and encoding are measured
+	private static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
@@ -25,6 +25,50 @@ public class BSTree<E extends Comparable<? super E>> implements BSTreeADT<E>, Se
 		size = 0;
 	}
 
+	/**
+	 * Creates a tree holding a single element at its root.
+	 *
+	 * @param element element to store at the root; must not be null
+	 * @throws NullPointerException when element is null
+	 */
+	public BSTree(E element) throws NullPointerException {
+		this();
+		add(element);
+	}
+
+	/**
+	 * Creates a copy of another tree with the same shape. The nodes are new,
+	 * so either tree can be restructured without affecting the other, but the
+	 * elements themselves are shared.
+	 *
+	 * @param other tree to copy
+	 */
+	public BSTree(BSTree<E> other) {
+		this();
+		if (other.root == null)
+			return;
+		root = new BSTreeNode<>(other.root.getData());
+		size = other.size;
+		java.util.ArrayDeque<BSTreeNode<E>> from = new java.util.ArrayDeque<>();
+		java.util.ArrayDeque<BSTreeNode<E>> to = new java.util.ArrayDeque<>();
+		from.push(other.root);
+		to.push(root);
+		while (!from.isEmpty()) {
+			BSTreeNode<E> source = from.pop();
+			BSTreeNode<E> copy = to.pop();
+			if (source.getLeft() != null) {
+				copy.setLeft(new BSTreeNode<>(source.getLeft().getData()));
+				from.push(source.getLeft());
+				to.push(copy.getLeft());
+			}
+			if (source.getRight() != null) {
+				copy.setRight(new BSTreeNode<>(source.getRight().getData()));
+				from.push(source.getRight());
+				to.push(copy.getRight());
+			}
+		}
+	}
+
 	/**
 	 * Checks whether the tree contains any elements.
 	 *
@@ -68,20 +112,170 @@ public class BSTree<E extends Comparable<? super E>> implements BSTreeADT<E>, Se
 	}
 
 	/**
-	 * Computes the height of the tree (number of levels).
+	 * Computes the height of the tree (number of levels). The tree is walked
+	 * level by level, so a degenerate tree does not overflow the stack.
 	 *
 	 * @return height as an integer (0 for empty tree)
 	 */
 	@Override
 	public int getHeight() {
-		return heightRec(root);
+		int height = 0;
+		java.util.ArrayDeque<BSTreeNode<E>> level = new java.util.ArrayDeque<>();
+		if (root != null)
+			level.add(root);
+		while (!level.isEmpty()) {
+			height++;
+			for (int n = level.size(); n > 0; n--) {
+				BSTreeNode<E> node = level.poll();
+				if (node.getLeft() != null)
+					level.add(node.getLeft());
+				if (node.getRight() != null)
+					level.add(node.getRight());
+			}
+		}
+		return height;
 	}
 
-	// Recursive helper to compute subtree height
-	private int heightRec(BSTreeNode<E> node) {
-		if (node == null)
-			return 0;
-		return 1 + Math.max(heightRec(node.getLeft()), heightRec(node.getRight()));
+	/**
+	 * Describes the shape of the tree: node depth histogram, average and
+	 * maximum search path length, leaf count and subtree imbalance factors.
+	 * Runs in O(n) time without recursion.
+	 *
+	 * @return shape statistics
+	 */
+	public TreeStats getStats() {
+		if (root == null)
+			return new TreeStats(0, new int[1], 0, 0, 0, 0, 0);
+		// number the nodes in pre-order, recording each one's depth and the
+		// numbers of its children; children always come after their parent
+		int n = size;
+		int[] depth = new int[n];
+		int[] left = new int[n];
+		int[] right = new int[n];
+		java.util.Arrays.fill(left, -1);
+		java.util.Arrays.fill(right, -1);
+		java.util.ArrayDeque<BSTreeNode<E>> stack = new java.util.ArrayDeque<>();
+		java.util.ArrayDeque<Integer> parents = new java.util.ArrayDeque<>(); // parent number, negated - 1 for a left child
+		stack.push(root);
+		parents.push(Integer.MAX_VALUE);
+		int maxDepth = 0;
+		long totalDepth = 0;
+		int leaves = 0;
+		for (int i = 0; !stack.isEmpty(); i++) {
+			BSTreeNode<E> node = stack.pop();
+			int parent = parents.pop();
+			if (parent == Integer.MAX_VALUE) {
+				depth[i] = 1;
+			} else if (parent < 0) {
+				left[-parent - 1] = i;
+				depth[i] = depth[-parent - 1] + 1;
+			} else {
+				right[parent] = i;
+				depth[i] = depth[parent] + 1;
+			}
+			if (node.getRight() != null) {
+				stack.push(node.getRight());
+				parents.push(i);
+			}
+			if (node.getLeft() != null) {
+				stack.push(node.getLeft());
+				parents.push(-i - 1);
+			}
+			if (node.getLeft() == null && node.getRight() == null)
+				leaves++;
+			maxDepth = Math.max(maxDepth, depth[i]);
+			totalDepth += depth[i];
+		}
+
+		int[] histogram = new int[maxDepth + 1];
+		for (int d : depth)
+			histogram[d]++;
+
+		// subtree heights, children first
+		int[] height = new int[n];
+		int maxImbalance = 0;
+		int unbalanced = 0;
+		for (int i = n - 1; i >= 0; i--) {
+			int lh = left[i] < 0 ? 0 : height[left[i]];
+			int rh = right[i] < 0 ? 0 : height[right[i]];
+			height[i] = 1 + Math.max(lh, rh);
+			int imbalance = Math.abs(lh - rh);
+			maxImbalance = Math.max(maxImbalance, imbalance);
+			if (imbalance > 1)
+				unbalanced++;
+		}
+		int rootImbalance = (left[0] < 0 ? 0 : height[left[0]]) - (right[0] < 0 ? 0 : height[right[0]]);
+		return new TreeStats(n, histogram, totalDepth, leaves, rootImbalance, maxImbalance, unbalanced);
+	}
+
+	/**
+	 * Rebuilds the tree into a balanced shape holding the same elements, so
+	 * every search makes at most about log2(size) comparisons. The existing
+	 * nodes are relinked; no elements are copied.
+	 */
+	public void rebalance() {
+		if (root == null)
+			return;
+		BSTreeNode<E>[] nodes = nodesInOrder();
+		// each range [lo, hi) becomes a subtree rooted at its middle node,
+		// linked to the parent waiting for it
+		java.util.ArrayDeque<int[]> ranges = new java.util.ArrayDeque<>();
+		java.util.ArrayDeque<BSTreeNode<E>> parents = new java.util.ArrayDeque<>();
+		root = nodes[(nodes.length - 1) >>> 1];
+		ranges.push(new int[] { 0, nodes.length });
+		parents.push(root);
+		while (!ranges.isEmpty()) {
+			int[] range = ranges.pop();
+			BSTreeNode<E> node = parents.pop();
+			int mid = (range[0] + range[1] - 1) >>> 1;
+			node.setLeft(link(nodes, range[0], mid, ranges, parents));
+			node.setRight(link(nodes, mid + 1, range[1], ranges, parents));
+		}
+	}
+
+	/**
+	 * Returns an immutable copy of the tree laid out for searching, for when
+	 * the tree is done changing. Later changes to this tree are not seen by
+	 * the copy; the elements themselves are shared.
+	 *
+	 * @return frozen copy of the tree
+	 */
+	public FrozenTree<E> freeze() {
+		BSTreeNode<E>[] nodes = nodesInOrder();
+		Object[] sorted = new Object[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			sorted[i] = nodes[i].getData();
+		}
+		return new FrozenTree<>(sorted);
+	}
+
+	// Returns the middle node of nodes[lo, hi) and queues its range, or null if empty
+	private BSTreeNode<E> link(BSTreeNode<E>[] nodes, int lo, int hi, java.util.ArrayDeque<int[]> ranges,
+			java.util.ArrayDeque<BSTreeNode<E>> parents) {
+		if (lo >= hi)
+			return null;
+		BSTreeNode<E> node = nodes[(lo + hi - 1) >>> 1];
+		ranges.push(new int[] { lo, hi });
+		parents.push(node);
+		return node;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private BSTreeNode<E>[] nodesInOrder() {
+		BSTreeNode<E>[] nodes = new BSTreeNode[size];
+		int n = 0;
+		java.util.ArrayDeque<BSTreeNode<E>> stack = new java.util.ArrayDeque<>();
+		BSTreeNode<E> current = root;
+		while (current != null || !stack.isEmpty()) {
+			while (current != null) {
+				stack.push(current);
+				current = current.getLeft();
+			}
+			current = stack.pop();
+			nodes[n++] = current;
+			current = current.getRight();
+		}
+		return nodes;
 	}
 
 	/**
@@ -175,6 +369,53 @@ public class BSTree<E extends Comparable<? super E>> implements BSTreeADT<E>, Se
 		}
 	}
 
+	/**
+	 * Removes the element equal to the provided entry, if present. A node with
+	 * two children takes over the element of its in-order successor, which is
+	 * unlinked instead.
+	 *
+	 * @param entry element to remove; must not be null
+	 * @return true if an element was removed, false if none was equal to entry
+	 * @throws NullPointerException when entry is null
+	 */
+	public boolean remove(E entry) throws NullPointerException {
+		if (entry == null)
+			throw new NullPointerException();
+		BSTreeNode<E> parent = null;
+		BSTreeNode<E> current = root;
+		while (current != null) {
+			int cmp = entry.compareTo(current.getData());
+			if (cmp == 0)
+				break;
+			parent = current;
+			current = (cmp < 0) ? current.getLeft() : current.getRight();
+		}
+		if (current == null)
+			return false;
+
+		if (current.getLeft() != null && current.getRight() != null) {
+			BSTreeNode<E> successorParent = current;
+			BSTreeNode<E> successor = current.getRight();
+			while (successor.getLeft() != null) {
+				successorParent = successor;
+				successor = successor.getLeft();
+			}
+			current.setData(successor.getData());
+			parent = successorParent;
+			current = successor;
+		}
+		// current now has at most one child, which takes its place
+		BSTreeNode<E> child = current.getLeft() != null ? current.getLeft() : current.getRight();
+		if (parent == null)
+			root = child;
+		else if (parent.getLeft() == current)
+			parent.setLeft(child);
+		else
+			parent.setRight(child);
+		size--;
+		return true;
+	}
+
 	/**
 	 * Removes and returns the node containing the minimum element (left-most).
 	 *
@@ -184,20 +425,20 @@ public class BSTree<E extends Comparable<? super E>> implements BSTreeADT<E>, Se
 	public BSTreeNode<E> removeMin() {
 		if (root == null)
 			return null;
-		BSTreeNode<E> min = findMin(root);
-		root = removeMinRec(root);
+		BSTreeNode<E> parent = null;
+		BSTreeNode<E> min = root;
+		while (min.getLeft() != null) {
+			parent = min;
+			min = min.getLeft();
+		}
+		if (parent == null)
+			root = min.getRight();
+		else
+			parent.setLeft(min.getRight());
 		size--;
 		return min;
 	}
 
-	// Recursive helper to remove left-most node and re-link subtrees
-	private BSTreeNode<E> removeMinRec(BSTreeNode<E> node) {
-		if (node.getLeft() == null)
-			return node.getRight();
-		node.setLeft(removeMinRec(node.getLeft()));
-		return node;
-	}
-
 	/**
 	 * Removes and returns the node containing the maximum element (right-most).
 	 *
@@ -207,32 +448,87 @@ public class BSTree<E extends Comparable<? super E>> implements BSTreeADT<E>, Se
 	public BSTreeNode<E> removeMax() {
 		if (root == null)
 			return null;
-		BSTreeNode<E> max = findMax(root);
-		root = removeMaxRec(root);
+		BSTreeNode<E> parent = null;
+		BSTreeNode<E> max = root;
+		while (max.getRight() != null) {
+			parent = max;
+			max = max.getRight();
+		}
+		if (parent == null)
+			root = max.getLeft();
+		else
+			parent.setRight(max.getLeft());
 		size--;
 		return max;
 	}
 
-	// Recursive helper to remove right-most node and re-link subtrees
-	private BSTreeNode<E> removeMaxRec(BSTreeNode<E> node) {
-		if (node.getRight() == null)
-			return node.getLeft();
-		node.setRight(removeMaxRec(node.getRight()));
-		return node;
+	/**
+	 * Removes the k smallest elements and returns them in ascending order,
+	 * in a single in-order walk instead of k calls to {@link #removeMin()}.
+	 * This makes the tree usable as a sorted work queue that is drained in
+	 * batches.
+	 *
+	 * @param k number of elements to remove
+	 * @return removed elements, smallest first; fewer than k if the tree had fewer
+	 * @throws IllegalArgumentException when k is negative
+	 */
+	public java.util.List<E> pollMin(int k) throws IllegalArgumentException {
+		return poll(k, true);
 	}
 
-	// Iterative helper: find left-most node in subtree
-	private BSTreeNode<E> findMin(BSTreeNode<E> node) {
-		while (node.getLeft() != null)
-			node = node.getLeft();
-		return node;
+	/**
+	 * Removes the k largest elements and returns them in descending order,
+	 * in a single reverse in-order walk instead of k calls to
+	 * {@link #removeMax()}.
+	 *
+	 * @param k number of elements to remove
+	 * @return removed elements, largest first; fewer than k if the tree had fewer
+	 * @throws IllegalArgumentException when k is negative
+	 */
+	public java.util.List<E> pollMax(int k) throws IllegalArgumentException {
+		return poll(k, false);
 	}
 
-	// Iterative helper: find right-most node in subtree
-	private BSTreeNode<E> findMax(BSTreeNode<E> node) {
-		while (node.getRight() != null)
-			node = node.getRight();
-		return node;
+	// Walks the tree in order from the smallest (or largest) element and
+	// detaches the nodes visited. Once the k-th is detached, the nodes still
+	// waiting on the stack keep their subtrees on the far side and are
+	// chained back together, each holding the rest of the tree on its near
+	// side.
+	private java.util.List<E> poll(int k, boolean smallest) {
+		if (k < 0)
+			throw new IllegalArgumentException("Cannot poll a negative number of elements: " + k);
+		java.util.List<E> polled = new java.util.ArrayList<>(Math.min(k, size));
+		if (k == 0)
+			return polled;
+		java.util.ArrayDeque<BSTreeNode<E>> stack = new java.util.ArrayDeque<>();
+		BSTreeNode<E> current = root;
+		BSTreeNode<E> rest = null;
+		while (true) {
+			while (current != null) {
+				stack.push(current);
+				current = smallest ? current.getLeft() : current.getRight();
+			}
+			if (stack.isEmpty())
+				break; // the whole tree was polled
+			BSTreeNode<E> node = stack.pop();
+			polled.add(node.getData());
+			current = smallest ? node.getRight() : node.getLeft();
+			if (polled.size() == k) {
+				rest = current;
+				break;
+			}
+		}
+		while (!stack.isEmpty()) {
+			BSTreeNode<E> node = stack.pop();
+			if (smallest)
+				node.setLeft(rest);
+			else
+				node.setRight(rest);
+			rest = node;
+		}
+		root = rest;
+		size -= polled.size();
+		return polled;
 	}
 
 	@Override  
@@ -249,6 +545,16 @@ public class BSTree<E extends Comparable<? super E>> implements BSTreeADT<E>, Se
 	public Iterator<E> postorderIterator() {
 		return new BSTPostorderIterator<>(root);
 	}
+
+	/**
+	 * Returns an iterator over the elements in descending order (reverse
+	 * in-order: right, root, left).
+	 *
+	 * @return descending iterator
+	 */
+	public Iterator<E> descendingIterator() {
+		return new BSTDescendingIterator<>(root);
+	}
 }
 
 // Inorder Iterator -- Left, Root, Right
@@ -285,6 +591,39 @@ class BSTInorderIterator<E> implements utilities.Iterator<E> {
 		}
 }
 
+// Descending Iterator -- Right, Root, Left
+class BSTDescendingIterator<E> implements utilities.Iterator<E> {
+	private java.util.Stack<BSTreeNode<E>> stack;
+
+	public BSTDescendingIterator(BSTreeNode<E> root) {
+		stack = new java.util.Stack<>();
+		pushRight(root);
+	}
+
+	private void pushRight(BSTreeNode<E> node) {
+		while (node != null) {
+			stack.push(node);
+			node = node.getRight();
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !stack.isEmpty();
+	}
+
+	@Override
+	public E next() throws java.util.NoSuchElementException {
+		if (!hasNext()) {
+			throw new java.util.NoSuchElementException();
+		}
+
+		BSTreeNode<E> node = stack.pop();
+		pushRight(node.getLeft());
+		return node.getData();
+	}
+}
+
 // Preorder iterator -- Root, Left, Right
 class BSTPreorderIterator<E> implements utilities.Iterator<E> {
 	private java.util.Stack<BSTreeNode<E>> stack;
@@ -311,6 +650,9 @@ class BSTPreorderIterator<E> implements utilities.Iterator<E> {
 		BSTreeNode<E> node = stack.pop();
 
 		if (node.getRight() != null) {
+			stack.push(node.getRight());
+		}
+		if (node.getLeft() != null) {
 			stack.push(node.getLeft());
 		}
 
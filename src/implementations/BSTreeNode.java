@@ -39,6 +39,15 @@ public class BSTreeNode<E> implements Serializable {
 		return data;
 	}
 
+	/**
+	 * Returns the stored data element. Same as {@link #getData()}.
+	 *
+	 * @return data element
+	 */
+	public E getElement() {
+		return data;
+	}
+
 	/**
 	 * Replaces the stored data element.
 	 *
@@ -0,0 +1,156 @@
+package implementations;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import implementations.WordTracker.WordInfo;
+
+/**
+ * BloomFilter answers "is this word possibly in the repository?" from a few
+ * bits per word. A "no" is always right, so a lookup of a missing word can
+ * be answered without searching the tree, or without loading the repository
+ * at all: the filter is saved in a header in front of the serialized
+ * repository (see {@link WordTracker#saveRepository(Repository, java.io.File)}).
+ * A "yes" is wrong for about 1% of missing words when the filter holds as
+ * many words as it was sized for.
+ *
+ * Words can be added but not removed, so words that left the repository
+ * keep answering "yes" until the filter is rebuilt; {@link Repository}
+ * rebuilds it, twice as large, whenever the tree outgrows it.
+ */
+public class BloomFilter {
+	// about 1% false positives at capacity
+	private static final int BITS_PER_WORD = 10;
+	private static final int HASHES = 7;
+	private static final int MIN_CAPACITY = 1024;
+
+	private final long[] bits;
+	private final int capacity;
+	private final int hashes;
+
+	/**
+	 * Creates an empty filter.
+	 *
+	 * @param capacity number of words the filter is sized for
+	 */
+	public BloomFilter(int capacity) {
+		this(Math.max(capacity, MIN_CAPACITY), HASHES,
+				new long[(int) ((Math.max(capacity, MIN_CAPACITY) * (long) BITS_PER_WORD + 63) / 64)]);
+	}
+
+	/**
+	 * Creates a filter holding every word in a tree, with room for as many
+	 * again.
+	 *
+	 * @param tree word tree to add
+	 */
+	public BloomFilter(BSTree<WordInfo> tree) {
+		this((int) Math.min(Integer.MAX_VALUE / BITS_PER_WORD, 2L * tree.size()));
+		utilities.Iterator<WordInfo> it = tree.inorderIterator();
+		while (it.hasNext()) {
+			add(it.next().getKey());
+		}
+	}
+
+	/**
+	 * Creates a copy of another filter.
+	 *
+	 * @param other filter to copy
+	 */
+	public BloomFilter(BloomFilter other) {
+		this(other.capacity, other.hashes, other.bits.clone());
+	}
+
+	private BloomFilter(int capacity, int hashes, long[] bits) {
+		this.capacity = capacity;
+		this.hashes = hashes;
+		this.bits = bits;
+	}
+
+	/**
+	 * Adds a word.
+	 *
+	 * @param word word to add, as a String or held in an arena
+	 */
+	public void add(CharSequence word) {
+		long hash = hash(word);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		long m = bits.length * 64L;
+		for (int i = 0; i < hashes; i++) {
+			long bit = Integer.toUnsignedLong(h1 + i * h2) % m;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * Tells whether a word may have been added.
+	 *
+	 * @param word word to check
+	 * @return false if the word was certainly never added
+	 */
+	public boolean mightContain(String word) {
+		long hash = hash(word);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		long m = bits.length * 64L;
+		for (int i = 0; i < hashes; i++) {
+			long bit = Integer.toUnsignedLong(h1 + i * h2) % m;
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of words the filter was sized for.
+	 *
+	 * @return capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Writes the filter.
+	 *
+	 * @param out where to write it
+	 * @throws IOException if writing fails
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(capacity);
+		out.writeInt(hashes);
+		out.writeInt(bits.length);
+		for (long word : bits) {
+			out.writeLong(word);
+		}
+	}
+
+	/**
+	 * Reads a filter written by {@link #write}.
+	 *
+	 * @param in where to read it from
+	 * @return the filter
+	 * @throws IOException if reading fails
+	 */
+	public static BloomFilter read(DataInput in) throws IOException {
+		int capacity = in.readInt();
+		int hashes = in.readInt();
+		long[] bits = new long[in.readInt()];
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] = in.readLong();
+		}
+		return new BloomFilter(capacity, hashes, bits);
+	}
+
+	// 64-bit FNV-1a over the characters; the halves serve as two hashes
+	private static long hash(CharSequence word) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < word.length(); i++) {
+			h ^= word.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h ^ (h >>> 29);
+	}
+}
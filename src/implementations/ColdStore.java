@@ -0,0 +1,345 @@
+package implementations;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import implementations.WordTracker.WordInfo;
+
+/**
+ * ColdStore keeps the words evicted from a repository by WordTracker's
+ * -maxwords option, so their postings are not lost. It is an append-only
+ * file of records, one per evicted word; a word evicted again after coming
+ * back has several.
+ *
+ * When a file is ingested again or removed, the postings archived for it no
+ * longer match it. Instead of rewriting the store, a drop record naming the
+ * file is appended, and the file's postings in the records before it are
+ * left out of every lookup; after a tail ingest that read the file's last
+ * line again, only the postings from that line on are.
+ *
+ * An index next to the store ("&lt;store&gt;.idx") holds the word and
+ * position of every record, so a lookup reads only the records of the word
+ * looked up. It is read once per ColdStore. Records it does not cover, e.g.
+ * in a store written before there was an index or by a run that stopped
+ * before indexing what it had written, are read from the store instead and
+ * indexed by the next append.
+ */
+public class ColdStore {
+	private static final int MAGIC = 0x57544331; // "WTC1"
+	// starts a drop record; a word record starts with the word's length instead
+	private static final int DROP = -1;
+
+	private final Path path;
+	private final Path indexPath;
+	// word -> offsets of its records; null until the index is read
+	private Map<String, long[]> records;
+	// file -> {offset, first line dropped} of every drop record naming it
+	private Map<String, List<long[]>> drops;
+	// length of the store covered by the records read so far
+	private long indexed;
+	// length of the index file up to its last entry that matches the store
+	private long indexLength;
+	// index entries of records read from the store that the index lacks
+	private final ByteArrayOutputStream unindexed = new ByteArrayOutputStream();
+
+	/**
+	 * @param path file holding the store; created by the first append
+	 */
+	public ColdStore(Path path) {
+		this.path = path;
+		this.indexPath = path.resolveSibling(path.getFileName() + ".idx");
+	}
+
+	/**
+	 * Appends words to the store. A {@link #find} reading the file meanwhile
+	 * stops at the record being written.
+	 *
+	 * @param words words to append
+	 * @throws IOException if the store cannot be written
+	 */
+	public void append(Collection<WordInfo> words) throws IOException {
+		if (words.isEmpty())
+			return;
+		long start = prepareAppend();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream entries = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		for (WordInfo wi : words) {
+			long offset = start + data.size();
+			write(data, wi);
+			index(new DataOutputStream(entries), false, wi.getWord(), 0, offset, start + data.size());
+		}
+		write(bytes, entries);
+	}
+
+	/**
+	 * Leaves the postings of a file archived so far out of every later
+	 * lookup, from a given line on, e.g. because the file is ingested again.
+	 *
+	 * @param fileName file name as used in the postings
+	 * @param fromLine first line whose postings are dropped; 0 for all of them
+	 * @throws IOException if the store cannot be written
+	 */
+	public void drop(String fileName, int fromLine) throws IOException {
+		long start = prepareAppend();
+		if (records.isEmpty())
+			return; // nothing archived that could be out of date
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream entries = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		data.writeInt(DROP);
+		data.writeUTF(fileName);
+		data.writeInt(fromLine);
+		index(new DataOutputStream(entries), true, fileName, fromLine, start, start + data.size());
+		write(bytes, entries);
+	}
+
+	/**
+	 * Looks a word up, merging every record of it in the order they were
+	 * appended. Postings dropped after their record was written are left
+	 * out.
+	 *
+	 * @param word word to look up
+	 * @return the word's archived postings, or null if none are left
+	 * @throws IOException if the store cannot be read
+	 */
+	public WordInfo find(String word) throws IOException {
+		load();
+		long[] offsets = records.get(word);
+		if (offsets == null)
+			return null;
+		WordInfo found = null;
+		try (FileChannel store = FileChannel.open(path, StandardOpenOption.READ)) {
+			for (long offset : offsets) {
+				store.position(offset);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(store)));
+				WordInfo wi = read(in, in.readInt());
+				dropStale(wi, offset);
+				if (found == null)
+					found = wi;
+				else
+					found.addAll(wi);
+			}
+		}
+		return found.getLocations().isEmpty() ? null : found;
+	}
+
+	// Reads the index on first use, then the records of the store it does not cover
+	private void load() throws IOException {
+		if (records == null)
+			readIndex();
+		long size = size(path);
+		if (indexed == size)
+			return;
+		try (FileChannel store = FileChannel.open(path, StandardOpenOption.READ)) {
+			store.position(indexed);
+			CountingInputStream counting = new CountingInputStream(
+					new BufferedInputStream(Channels.newInputStream(store)), indexed);
+			DataInputStream in = new DataInputStream(counting);
+			DataOutputStream entries = new DataOutputStream(unindexed);
+			while (true) {
+				long offset = indexed;
+				try {
+					int length = in.readInt();
+					if (length == DROP) {
+						String file = in.readUTF();
+						int fromLine = in.readInt();
+						index(entries, true, file, fromLine, offset, counting.count);
+					} else {
+						String word = read(in, length).getWord();
+						index(entries, false, word, 0, offset, counting.count);
+					}
+				} catch (EOFException e) {
+					break; // end of the store, or a record still being appended
+				}
+			}
+		}
+	}
+
+	// Reads the entries of the index file that match the store
+	private void readIndex() throws IOException {
+		records = new HashMap<>();
+		drops = new HashMap<>();
+		long size = size(path);
+		try (InputStream file = Files.newInputStream(indexPath)) {
+			CountingInputStream counting = new CountingInputStream(new BufferedInputStream(file), 0);
+			DataInputStream in = new DataInputStream(counting);
+			if (in.readInt() != MAGIC)
+				return;
+			indexLength = counting.count;
+			while (true) {
+				boolean drop = in.readBoolean();
+				String name = in.readUTF();
+				int line = in.readInt();
+				long offset = in.readLong();
+				int length = in.readInt();
+				if (offset != indexed || offset + length > size)
+					break; // written for another store, or for records lost since
+				add(drop, name, line, offset);
+				indexed = offset + length;
+				indexLength = counting.count;
+			}
+		} catch (NoSuchFileException | EOFException e) {
+			// no index yet, or the end of it
+		}
+	}
+
+	// Reads the store up to its end and returns where the next record goes,
+	// cutting off a record left incomplete by a run that stopped writing it
+	private long prepareAppend() throws IOException {
+		load();
+		if (size(path) > indexed) {
+			try (FileChannel store = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				store.truncate(indexed);
+			}
+		}
+		return indexed;
+	}
+
+	// Appends records to the store, then their entries to the index
+	private void write(ByteArrayOutputStream data, ByteArrayOutputStream entries) throws IOException {
+		try (OutputStream store = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			data.writeTo(store);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		if (indexLength == 0)
+			new DataOutputStream(bytes).writeInt(MAGIC);
+		unindexed.writeTo(bytes);
+		entries.writeTo(bytes);
+		try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			index.truncate(indexLength); // entries that do not match the store
+			index.position(indexLength);
+			bytes.writeTo(Channels.newOutputStream(index));
+		}
+		indexLength += bytes.size();
+		unindexed.reset();
+	}
+
+	// Writes the index entry of a record and adds it to the records in memory
+	private void index(DataOutput entries, boolean drop, String name, int line, long offset, long end)
+			throws IOException {
+		entries.writeBoolean(drop);
+		entries.writeUTF(name);
+		entries.writeInt(line);
+		entries.writeLong(offset);
+		entries.writeInt((int) (end - offset));
+		add(drop, name, line, offset);
+		indexed = end;
+	}
+
+	private void add(boolean drop, String name, int line, long offset) {
+		if (drop) {
+			drops.computeIfAbsent(name, k -> new ArrayList<>()).add(new long[] { offset, line });
+			return;
+		}
+		long[] offsets = records.get(name);
+		offsets = offsets == null ? new long[1] : Arrays.copyOf(offsets, offsets.length + 1);
+		offsets[offsets.length - 1] = offset;
+		records.put(name, offsets);
+	}
+
+	// Removes the postings of a record that a later drop record left out
+	private void dropStale(WordInfo wi, long offset) {
+		for (String file : new ArrayList<>(wi.getLocations().keySet())) {
+			List<long[]> fileDrops = drops.get(file);
+			if (fileDrops == null)
+				continue;
+			for (long[] drop : fileDrops) {
+				if (drop[0] > offset)
+					wi.removeLinesFrom(file, (int) drop[1]);
+			}
+		}
+	}
+
+	private static long size(Path file) throws IOException {
+		try {
+			return Files.size(file);
+		} catch (NoSuchFileException e) {
+			return 0;
+		}
+	}
+
+	// Writes a word with all its postings as one record
+	private static void write(DataOutput out, WordInfo wi) throws IOException {
+		String word = wi.getWord();
+		out.writeInt(word.length());
+		out.writeBytes(word); // a-z only, one byte each
+		out.writeInt(wi.getLocations().size());
+		for (Map.Entry<String, List<Integer>> entry : wi.getLocations().entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeInt(entry.getValue().size());
+			for (int line : entry.getValue()) {
+				out.writeInt(line);
+			}
+		}
+	}
+
+	// Reads the rest of a record written by write, after the word's length
+	private static WordInfo read(DataInput in, int length) throws IOException {
+		byte[] letters = new byte[length];
+		in.readFully(letters);
+		WordInfo wi = new WordInfo(new String(letters, StandardCharsets.ISO_8859_1));
+		for (int files = in.readInt(); files > 0; files--) {
+			String file = in.readUTF();
+			for (int lines = in.readInt(); lines > 0; lines--) {
+				wi.addOccurrence(file, in.readInt());
+			}
+		}
+		return wi;
+	}
+
+	// Counts the bytes read from a stream, so records can be located while reading them
+	private static final class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(InputStream in, long start) {
+			super(in);
+			count = start;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
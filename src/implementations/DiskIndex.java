@@ -0,0 +1,566 @@
+package implementations;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+import implementations.WordTracker.WordInfo;
+
+/**
+ * DiskIndex is a repository kept on disk in word order, for WordTracker's
+ * -index option. It is written by {@link SpillingIngest} and read in place:
+ * a lookup reads only the block of words its word is in, and a report or a
+ * -pc list streams through the words, so neither needs the repository on
+ * the heap.
+ *
+ * The file holds, in this order:
+ * <ul>
+ * <li>a magic number;</li>
+ * <li>one record per word, in word order: the word's length and letters,
+ * then groups of postings, each a file id, a line count and the lines,
+ * and {@link #END} after the last group;</li>
+ * <li>{@link #END} after the last record;</li>
+ * <li>the offset of every {@link #BLOCK_WORDS}th record, which a lookup
+ * searches with a binary search on the records' words;</li>
+ * <li>the file table: the name, id and {@link FileRecord} of every
+ * ingested file;</li>
+ * <li>a footer with the offsets of the block offsets and the file table,
+ * the number of words and the magic number again.</li>
+ * </ul>
+ *
+ * A file may have several groups in one record, e.g. when its postings were
+ * spilled in several runs; its lines are in ascending order across them.
+ * Only the file table is read into memory when an index is opened.
+ */
+public class DiskIndex {
+	private static final int MAGIC = 0x57545831; // "WTX1"
+	// ends the groups of a record, and the records
+	static final int END = -1;
+	// records per entry of the block offsets
+	static final int BLOCK_WORDS = 64;
+	// blocks offset, files offset, words, magic
+	private static final int FOOTER_BYTES = 8 + 8 + 8 + 4;
+
+	private final Path path;
+	private final boolean exists;
+	private long blocksOffset;
+	private long filesOffset;
+	private long words;
+	// file name -> id used in the postings, in the order they were first ingested
+	private final Map<String, Integer> ids = new LinkedHashMap<>();
+	private final Map<String, FileRecord> files = new HashMap<>();
+	private final Map<Integer, String> names = new HashMap<>();
+
+	/**
+	 * Opens an index and reads its file table. An index that does not exist
+	 * yet is empty.
+	 *
+	 * @param path index file
+	 * @throws IOException if the file cannot be read or is not an index
+	 */
+	public DiskIndex(Path path) throws IOException {
+		this.path = path;
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			exists = false;
+			return;
+		}
+		exists = true;
+		try {
+			long size = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(4);
+			ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+			if (size < 4 + 4 + FOOTER_BYTES || !readFully(channel, header, 0)
+					|| !readFully(channel, footer, size - FOOTER_BYTES) || header.getInt(0) != MAGIC
+					|| footer.getInt(FOOTER_BYTES - 4) != MAGIC)
+				throw new IOException("Not a WordTracker index: " + path);
+			blocksOffset = footer.getLong(0);
+			filesOffset = footer.getLong(8);
+			words = footer.getLong(16);
+			channel.position(filesOffset);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			for (int n = in.readInt(); n > 0; n--) {
+				String name = in.readUTF();
+				int id = in.readInt();
+				ids.put(name, id);
+				names.put(id, name);
+				files.put(name, FileRecord.read(in));
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Tells whether the index file exists.
+	 *
+	 * @return false for an index nothing was written to yet
+	 */
+	public boolean exists() {
+		return exists;
+	}
+
+	/**
+	 * Returns the index file.
+	 *
+	 * @return path the index was opened from
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Returns the number of words in the index.
+	 *
+	 * @return word count
+	 */
+	public long size() {
+		return words;
+	}
+
+	/**
+	 * Returns the ids of the ingested files, which the postings refer to
+	 * them by.
+	 *
+	 * @return unmodifiable map of file name to id
+	 */
+	public Map<String, Integer> getFileIds() {
+		return Collections.unmodifiableMap(ids);
+	}
+
+	/**
+	 * Returns the record of a file from its last ingest.
+	 *
+	 * @param fileName file name as used in the postings
+	 * @return record, or null if the file was never ingested
+	 */
+	public FileRecord getFileRecord(String fileName) {
+		return files.get(fileName);
+	}
+
+	/**
+	 * Looks a word up. The block the word would be in is found with a binary
+	 * search over the first words of the blocks, then read up to the word.
+	 *
+	 * @param word word to look up
+	 * @return the word's postings, or null if it is not in the index
+	 * @throws IOException if the index cannot be read
+	 */
+	public WordInfo find(String word) throws IOException {
+		if (words == 0)
+			return null;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long lo = 0;
+			long hi = (filesOffset - blocksOffset) / 8 - 1;
+			long block = -1;
+			while (lo <= hi) {
+				long mid = (lo + hi) >>> 1;
+				if (wordAt(channel, blockOffset(channel, mid)).compareTo(word) <= 0) {
+					block = mid;
+					lo = mid + 1;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			if (block < 0)
+				return null;
+			channel.position(blockOffset(channel, block));
+			Records records = new Records(Channels.newInputStream(channel));
+			for (int n = 0; n < BLOCK_WORDS && records.next(); n++) {
+				int cmp = records.getWord().compareTo(word);
+				if (cmp == 0)
+					return records.read(names::get);
+				if (cmp > 0)
+					break;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the words of the index in order, each read with its postings
+	 * when it is reached. The iterator throws {@link UncheckedIOException}
+	 * if the index cannot be read, and must be closed.
+	 *
+	 * @return iterator over the words
+	 * @throws IOException if the index cannot be opened
+	 */
+	public Cursor cursor() throws IOException {
+		return new Cursor(this);
+	}
+
+	/**
+	 * Returns the most frequent words, most frequent first and with the same
+	 * count in alphabetical order, as {@link FrequencyIndex#top} does. The
+	 * words are counted in one pass, keeping only the k best so far.
+	 *
+	 * @param k number of words to return at most
+	 * @return up to k words with their counts
+	 * @throws IOException if the index cannot be read
+	 */
+	public List<Map.Entry<CharSequence, Integer>> top(int k) throws IOException {
+		// the worst of the best k so far on top
+		PriorityQueue<Map.Entry<CharSequence, Integer>> best = new PriorityQueue<>((a, b) -> {
+			int cmp = Integer.compare(a.getValue(), b.getValue());
+			return cmp != 0 ? cmp : b.getKey().toString().compareTo(a.getKey().toString());
+		});
+		if (k > 0 && words > 0) {
+			try (Records records = open()) {
+				while (records.next()) {
+					int count = 0;
+					while (records.nextFile() != END) {
+						count += records.getLines();
+					}
+					best.add(new AbstractMap.SimpleImmutableEntry<>(records.getWord(), count));
+					if (best.size() > k)
+						best.poll();
+				}
+			}
+		}
+		List<Map.Entry<CharSequence, Integer>> top = new ArrayList<>(best.size());
+		while (!best.isEmpty()) {
+			top.add(best.poll());
+		}
+		Collections.reverse(top);
+		return top;
+	}
+
+	// Opens the records for reading from the first one
+	Records open() throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		channel.position(4);
+		return new Records(Channels.newInputStream(channel));
+	}
+
+	// Returns the file name of an id
+	String getFileName(int id) {
+		return names.get(id);
+	}
+
+	private long blockOffset(FileChannel channel, long block) throws IOException {
+		ByteBuffer offset = ByteBuffer.allocate(8);
+		if (!readFully(channel, offset, blocksOffset + block * 8))
+			throw new EOFException();
+		return offset.getLong(0);
+	}
+
+	private static String wordAt(FileChannel channel, long offset) throws IOException {
+		ByteBuffer length = ByteBuffer.allocate(4);
+		if (!readFully(channel, length, offset))
+			throw new EOFException();
+		ByteBuffer letters = ByteBuffer.allocate(length.getInt(0));
+		if (!readFully(channel, letters, offset + 4))
+			throw new EOFException();
+		return new String(letters.array(), StandardCharsets.ISO_8859_1);
+	}
+
+	// Fills a buffer from a position; false if the channel ends first
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position + buffer.position());
+			if (n < 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads records, in the format of an index or of a run spilled by
+	 * {@link SpillingIngest}, one group of postings at a time, so a word with
+	 * many postings can be copied without holding them all.
+	 */
+	static final class Records implements Closeable {
+		private final DataInputStream in;
+		private String word;
+		// true until every group of the current word has been read
+		private boolean inWord;
+		// lines of the current group not read yet
+		private int lines;
+
+		Records(InputStream in) {
+			this.in = new DataInputStream(new BufferedInputStream(in));
+		}
+
+		// Moves to the next record, skipping what is left of the current one;
+		// false after the last record
+		boolean next() throws IOException {
+			while (inWord) {
+				nextFile();
+			}
+			int length = in.readInt();
+			if (length == END) {
+				word = null;
+				return false;
+			}
+			byte[] letters = new byte[length];
+			in.readFully(letters);
+			word = new String(letters, StandardCharsets.ISO_8859_1); // a-z only, one byte each
+			inWord = true;
+			return true;
+		}
+
+		String getWord() {
+			return word;
+		}
+
+		// Moves to the next group of the current record, skipping what is left
+		// of the current one, and returns its file id; END after the last one
+		int nextFile() throws IOException {
+			for (long bytes = 4L * lines; bytes > 0;) {
+				int skipped = in.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+				if (skipped == 0)
+					throw new EOFException();
+				bytes -= skipped;
+			}
+			lines = 0;
+			int file = in.readInt();
+			if (file == END) {
+				inWord = false;
+				return END;
+			}
+			lines = in.readInt();
+			return file;
+		}
+
+		// Number of lines of the current group not read yet
+		int getLines() {
+			return lines;
+		}
+
+		int nextLine() throws IOException {
+			lines--;
+			return in.readInt();
+		}
+
+		// Reads the rest of the current record, naming the files by their ids
+		WordInfo read(IntFunction<String> names) throws IOException {
+			WordInfo wi = new WordInfo(word);
+			for (int file; (file = nextFile()) != END;) {
+				String name = names.apply(file);
+				while (lines > 0) {
+					wi.addOccurrence(name, nextLine());
+				}
+			}
+			return wi;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes records, either as a new index or as a run of
+	 * {@link SpillingIngest}. Records must be written in word order. A new
+	 * index is written to the path given and only becomes one with
+	 * {@link #finish}.
+	 */
+	static final class Writer implements Closeable {
+		private final FileOutputStream file;
+		private final CountingOutputStream counting;
+		private final DataOutputStream out;
+		// offsets of every BLOCK_WORDS-th record, kept on disk until the
+		// records are written; null for a run
+		private final Path blocksPath;
+		private DataOutputStream blocks;
+		private long words;
+
+		/**
+		 * @param path file to write
+		 * @param index true for an index, false for a run
+		 */
+		Writer(Path path, boolean index) throws IOException {
+			file = new FileOutputStream(path.toFile());
+			counting = new CountingOutputStream(new BufferedOutputStream(file, 1 << 16));
+			out = new DataOutputStream(counting);
+			if (index) {
+				out.writeInt(MAGIC);
+				blocksPath = path.resolveSibling(path.getFileName() + ".blocks");
+				blocks = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(blocksPath)));
+			} else {
+				blocksPath = null;
+			}
+		}
+
+		void word(String word) throws IOException {
+			if (blocks != null && words % BLOCK_WORDS == 0)
+				blocks.writeLong(counting.count);
+			words++;
+			out.writeInt(word.length());
+			out.writeBytes(word);
+		}
+
+		void file(int id, int lines) throws IOException {
+			out.writeInt(id);
+			out.writeInt(lines);
+		}
+
+		void line(int line) throws IOException {
+			out.writeInt(line);
+		}
+
+		void endWord() throws IOException {
+			out.writeInt(END);
+		}
+
+		// Writes a whole word, naming its files by their ids
+		void write(WordInfo wi, ToIntFunction<String> ids) throws IOException {
+			word(wi.getWord());
+			for (Map.Entry<String, List<Integer>> entry : wi.getLocations().entrySet()) {
+				file(ids.applyAsInt(entry.getKey()), entry.getValue().size());
+				for (int line : entry.getValue()) {
+					line(line);
+				}
+			}
+			endWord();
+		}
+
+		long getWords() {
+			return words;
+		}
+
+		/**
+		 * Ends the records and, for an index, appends the block offsets, the
+		 * file table and the footer, and forces it all to disk.
+		 *
+		 * @param ids id of every file name, in the order to list them
+		 * @param records record of every file name
+		 */
+		void finish(Map<String, Integer> ids, Map<String, FileRecord> records) throws IOException {
+			out.writeInt(END);
+			if (blocks == null) {
+				out.flush();
+				return;
+			}
+			blocks.close();
+			blocks = null;
+			long blocksOffset = counting.count;
+			Files.copy(blocksPath, out);
+			long filesOffset = counting.count;
+			out.writeInt(ids.size());
+			for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue());
+				records.get(entry.getKey()).write(out);
+			}
+			out.writeLong(blocksOffset);
+			out.writeLong(filesOffset);
+			out.writeLong(words);
+			out.writeInt(MAGIC);
+			out.flush();
+			file.getFD().sync();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				out.close();
+				if (blocks != null)
+					blocks.close();
+			} finally {
+				if (blocksPath != null)
+					Files.deleteIfExists(blocksPath);
+			}
+		}
+	}
+
+	/**
+	 * Iterates the words of an index in order, see {@link DiskIndex#cursor()}.
+	 */
+	public static final class Cursor implements utilities.Iterator<WordInfo>, Closeable {
+		private final DiskIndex index;
+		private final Records records;
+		private boolean ahead;
+		private boolean more;
+
+		private Cursor(DiskIndex index) throws IOException {
+			this.index = index;
+			this.records = index.exists ? index.open() : null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (records == null)
+				return false;
+			try {
+				if (!ahead) {
+					more = records.next();
+					ahead = true;
+				}
+				return more;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public WordInfo next() throws NoSuchElementException {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			ahead = false;
+			try {
+				return records.read(index::getFileName);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (records != null)
+				records.close();
+		}
+	}
+
+	// Counts the bytes written, so the offsets of records are known
+	private static final class CountingOutputStream extends FilterOutputStream {
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
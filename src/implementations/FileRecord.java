@@ -0,0 +1,221 @@
+package implementations;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * FileRecord remembers what an input file looked like when it was last
+ * ingested: its size and a SHA-256 hash of its content. {@link Repository}
+ * keeps one per file name so a file that has not changed since can be
+ * skipped, and one that has changed can have its old postings replaced.
+ *
+ * It also records where the last line of the ingested content starts and
+ * that line's number, so a file that has only grown can be ingested from
+ * there on (tail mode). The hash is not known after a tail ingest, since
+ * only the appended bytes were read.
+ */
+public class FileRecord implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final long size;
+	private final byte[] hash;
+	// 0 in records saved before tail mode existed, meaning "unknown"
+	private final long lineStart;
+	private final int lastLine;
+
+	/**
+	 * @param size file size in bytes
+	 * @param hash SHA-256 hash of the content, or null if not known
+	 */
+	public FileRecord(long size, byte[] hash) {
+		this(size, hash, 0, 0);
+	}
+
+	/**
+	 * @param size number of bytes ingested
+	 * @param hash SHA-256 hash of the content, or null if not known
+	 * @param lineStart byte offset where the last line starts (just after the last line terminator)
+	 * @param lastLine line number of that line
+	 */
+	public FileRecord(long size, byte[] hash, long lineStart, int lastLine) {
+		this.size = size;
+		this.hash = hash == null ? null : hash.clone();
+		this.lineStart = lineStart;
+		this.lastLine = lastLine;
+	}
+
+	/**
+	 * Reads a file and records its size and content hash.
+	 *
+	 * @param path file to read
+	 * @return record describing the file's current content
+	 * @throws IOException if the file cannot be read
+	 */
+	public static FileRecord of(Path path) throws IOException {
+		MessageDigest digest = newDigest();
+		long size = 0;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			int n;
+			while ((n = channel.read(buffer)) >= 0) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+				size += n;
+			}
+		}
+		return new FileRecord(size, digest.digest());
+	}
+
+	/**
+	 * Returns a digest of the kind the records hash their content with.
+	 *
+	 * @return new SHA-256 digest
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every Java platform has SHA-256
+		}
+	}
+
+	/**
+	 * Wraps a channel so the bytes read through it also update a digest, e.g.
+	 * to hash a file while it is being tokenized instead of reading it twice.
+	 *
+	 * @param channel channel to read from
+	 * @param digest digest to update, see {@link #newDigest()}
+	 * @return channel returning the same bytes as {@code channel}
+	 */
+	public static ReadableByteChannel hashing(ReadableByteChannel channel, MessageDigest digest) {
+		return new ReadableByteChannel() {
+			@Override
+			public int read(ByteBuffer dst) throws IOException {
+				int start = dst.position();
+				int n = channel.read(dst);
+				if (n > 0) {
+					ByteBuffer read = dst.duplicate();
+					read.position(start);
+					read.limit(start + n);
+					digest.update(read);
+				}
+				return n;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return channel.isOpen();
+			}
+
+			@Override
+			public void close() throws IOException {
+				channel.close();
+			}
+		};
+	}
+
+	/**
+	 * Returns the file size in bytes.
+	 *
+	 * @return size
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the byte offset at which the last ingested line starts. Bytes
+	 * from there to {@link #getSize()} belong to a line that had no
+	 * terminator yet when it was ingested.
+	 *
+	 * @return offset just after the last line terminator
+	 */
+	public long getLineStart() {
+		return lineStart;
+	}
+
+	/**
+	 * Returns the line number of the line starting at {@link #getLineStart()}.
+	 *
+	 * @return line number, or 0 if the record does not know it
+	 */
+	public int getLastLine() {
+		return lastLine;
+	}
+
+	/**
+	 * Tells whether the record knows where ingesting can continue.
+	 *
+	 * @return true if a tail ingest can start from this record
+	 */
+	public boolean canTail() {
+		return lastLine > 0;
+	}
+
+	/**
+	 * Returns a copy of this record with the position of the last line set.
+	 *
+	 * @param lineStart byte offset where the last line starts
+	 * @param lastLine line number of that line
+	 * @return new record
+	 */
+	public FileRecord withLastLine(long lineStart, int lastLine) {
+		return new FileRecord(size, hash, lineStart, lastLine);
+	}
+
+	/**
+	 * Writes the record in binary form, e.g. to the file table of a
+	 * {@link DiskIndex}.
+	 *
+	 * @param out where to write it
+	 * @throws IOException if writing fails
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(size);
+		out.writeInt(hash == null ? -1 : hash.length);
+		if (hash != null)
+			out.write(hash);
+		out.writeLong(lineStart);
+		out.writeInt(lastLine);
+	}
+
+	/**
+	 * Reads a record written by {@link #write}.
+	 *
+	 * @param in where to read it from
+	 * @return the record
+	 * @throws IOException if reading fails
+	 */
+	public static FileRecord read(DataInput in) throws IOException {
+		long size = in.readLong();
+		int length = in.readInt();
+		byte[] hash = null;
+		if (length >= 0) {
+			hash = new byte[length];
+			in.readFully(hash);
+		}
+		return new FileRecord(size, hash, in.readLong(), in.readInt());
+	}
+
+	/**
+	 * Tells whether another record describes the same content. Records without
+	 * a hash never match, so the file is indexed again in full.
+	 *
+	 * @param other record to compare with, may be null
+	 * @return true if both size and hash are equal
+	 */
+	public boolean sameContent(FileRecord other) {
+		return other != null && hash != null && size == other.size && Arrays.equals(hash, other.hash);
+	}
+}
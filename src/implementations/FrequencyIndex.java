@@ -0,0 +1,142 @@
+package implementations;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import implementations.WordTracker.WordInfo;
+
+/**
+ * FrequencyIndex orders the words of a repository by their total number of
+ * occurrences, so the most frequent ones can be listed without visiting
+ * every word.
+ *
+ * Words are kept in buckets by count, the buckets in a tree map. Changing a
+ * word's count moves it between two buckets in O(log n); listing the top K
+ * walks the buckets from the highest count down and stops after K words;
+ * the bottom K, used to evict rare words, walks them from the lowest up.
+ * Words with the same count are listed in alphabetical order.
+ *
+ * Words are held as their {@link WordInfo#getKey() keys}, so the index of a
+ * repository whose words are in an arena holds no String per word. The
+ * index is saved with its {@link Repository}, always with Strings. The
+ * buckets are sorted sets, which are read back in linear time, so loading
+ * it is cheaper than counting every word of the tree again.
+ */
+public class FrequencyIndex implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	// the words of one index are all Strings or all arena words, so they
+	// compare with each other in their natural order
+	private final TreeMap<Integer, TreeSet<CharSequence>> buckets = new TreeMap<>();
+
+	/**
+	 * Creates an empty index.
+	 */
+	public FrequencyIndex() {
+	}
+
+	/**
+	 * Creates an index of every word in a tree.
+	 *
+	 * @param tree word tree to index
+	 */
+	public FrequencyIndex(BSTree<WordInfo> tree) {
+		utilities.Iterator<WordInfo> it = tree.inorderIterator();
+		while (it.hasNext()) {
+			WordInfo wi = it.next();
+			update(wi.getKey(), 0, wi.getCount());
+		}
+	}
+
+	/**
+	 * Creates a copy of another index.
+	 *
+	 * @param other index to copy
+	 */
+	public FrequencyIndex(FrequencyIndex other) {
+		for (Map.Entry<Integer, TreeSet<CharSequence>> bucket : other.buckets.entrySet()) {
+			buckets.put(bucket.getKey(), new TreeSet<>(bucket.getValue()));
+		}
+	}
+
+	/**
+	 * Moves a word to the bucket of its new count. A count of 0 means the word
+	 * is not (or no longer) in the repository.
+	 *
+	 * @param word key of the word whose count changed, see {@link WordInfo#getKey()}
+	 * @param oldCount count before the change
+	 * @param newCount count after the change
+	 */
+	public void update(CharSequence word, int oldCount, int newCount) {
+		if (oldCount == newCount)
+			return;
+		if (oldCount > 0) {
+			TreeSet<CharSequence> bucket = buckets.get(oldCount);
+			if (bucket != null && bucket.remove(word) && bucket.isEmpty())
+				buckets.remove(oldCount);
+		}
+		if (newCount > 0)
+			buckets.computeIfAbsent(newCount, k -> new TreeSet<>()).add(word);
+	}
+
+	/**
+	 * Returns the most frequent words, most frequent first.
+	 *
+	 * @param k number of words to return at most
+	 * @return up to k word keys with their counts
+	 */
+	public List<Map.Entry<CharSequence, Integer>> top(int k) {
+		List<Map.Entry<CharSequence, Integer>> top = new ArrayList<>(Math.min(k, 1024));
+		for (Map.Entry<Integer, TreeSet<CharSequence>> bucket : buckets.descendingMap().entrySet()) {
+			for (CharSequence word : bucket.getValue()) {
+				if (top.size() == k)
+					return top;
+				top.add(new java.util.AbstractMap.SimpleImmutableEntry<>(word, bucket.getKey()));
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * Returns the least frequent words, least frequent first.
+	 *
+	 * @param k number of words to return at most
+	 * @return up to k word keys with their counts
+	 */
+	public List<Map.Entry<CharSequence, Integer>> bottom(int k) {
+		List<Map.Entry<CharSequence, Integer>> bottom = new ArrayList<>(Math.min(k, 1024));
+		for (Map.Entry<Integer, TreeSet<CharSequence>> bucket : buckets.entrySet()) {
+			for (CharSequence word : bucket.getValue()) {
+				if (bottom.size() == k)
+					return bottom;
+				bottom.add(new java.util.AbstractMap.SimpleImmutableEntry<>(word, bucket.getKey()));
+			}
+		}
+		return bottom;
+	}
+
+	// Saves the words as Strings, so the file does not depend on how they
+	// were held
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		TreeMap<Integer, TreeSet<CharSequence>> saved = buckets;
+		if (!buckets.isEmpty() && !(buckets.firstEntry().getValue().first() instanceof String)) {
+			saved = new TreeMap<>();
+			for (Map.Entry<Integer, TreeSet<CharSequence>> bucket : buckets.entrySet()) {
+				TreeSet<CharSequence> words = new TreeSet<>();
+				for (CharSequence word : bucket.getValue()) {
+					words.add(word.toString());
+				}
+				saved.put(bucket.getKey(), words);
+			}
+		}
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("buckets", saved);
+		out.writeFields();
+	}
+}
@@ -0,0 +1,152 @@
+package implementations;
+
+import java.util.NoSuchElementException;
+
+import utilities.Iterator;
+
+/**
+ * FrozenTree is an immutable, read-only copy of a {@link BSTree}, made by
+ * {@link BSTree#freeze()} once a tree is no longer changed and only
+ * searched.
+ *
+ * The elements are kept in one array in Eytzinger order: the layout of a
+ * perfectly balanced tree stored breadth first, with the children of slot k
+ * at 2k and 2k + 1. A search is a fixed number of steps of about log2(size),
+ * each of which reads a slot and moves to one of its children without
+ * branching on the outcome. The first levels of the tree are next to each
+ * other in memory, so they stay in cache across searches, and the slots a
+ * search may read next are close together.
+ *
+ * @param <E> type of elements stored; must implement Comparable
+ */
+public class FrozenTree<E extends Comparable<? super E>> {
+	// slot 0 is unused so that the children of slot k are 2k and 2k + 1
+	private final Object[] slots;
+	private final int size;
+
+	/**
+	 * @param sorted the elements in ascending order, without duplicates
+	 */
+	FrozenTree(Object[] sorted) {
+		size = sorted.length;
+		slots = new Object[size + 1];
+		// an in-order walk of the implicit tree visits the slots in element order
+		int next = 0;
+		int k = 1;
+		java.util.ArrayDeque<Integer> stack = new java.util.ArrayDeque<>();
+		while (k <= size || !stack.isEmpty()) {
+			while (k <= size) {
+				stack.push(k);
+				k = 2 * k;
+			}
+			k = stack.pop();
+			slots[k] = sorted[next++];
+			k = 2 * k + 1;
+		}
+	}
+
+	/**
+	 * Returns the number of elements.
+	 *
+	 * @return element count
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Tells whether there are no elements.
+	 *
+	 * @return true if the tree is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Finds the element equal to the given entry.
+	 *
+	 * @param entry element to search for; must not be null
+	 * @return the stored element, or null if there is none
+	 * @throws NullPointerException when entry is null
+	 */
+	public E search(E entry) throws NullPointerException {
+		if (entry == null)
+			throw new NullPointerException();
+		E found = ceiling(entry);
+		return found != null && found.compareTo(entry) == 0 ? found : null;
+	}
+
+	/**
+	 * Checks whether an element equal to the given entry is stored.
+	 *
+	 * @param entry element to search for; must not be null
+	 * @return true if the element exists
+	 * @throws NullPointerException when entry is null
+	 */
+	public boolean contains(E entry) throws NullPointerException {
+		return search(entry) != null;
+	}
+
+	/**
+	 * Finds the smallest element greater than or equal to the given entry.
+	 *
+	 * @param entry element to search for; must not be null
+	 * @return the element, or null if all elements are smaller
+	 * @throws NullPointerException when entry is null
+	 */
+	@SuppressWarnings("unchecked")
+	public E ceiling(E entry) throws NullPointerException {
+		if (entry == null)
+			throw new NullPointerException();
+		int k = 1;
+		while (k <= size) {
+			// go right if the slot is smaller than the entry: the sign bit of
+			// the comparison is added to the index instead of branched on
+			k = 2 * k + (((E) slots[k]).compareTo(entry) >>> 31);
+		}
+		// the last left turn was taken at the answer: drop the right turns after it, then it
+		k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+		return k == 0 ? null : (E) slots[k];
+	}
+
+	/**
+	 * Returns an iterator over the elements in ascending order.
+	 *
+	 * @return in-order iterator
+	 */
+	public Iterator<E> inorderIterator() {
+		return new Iterator<E>() {
+			private int k = first(1);
+
+			@Override
+			public boolean hasNext() {
+				return k != 0;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public E next() throws NoSuchElementException {
+				if (k == 0)
+					throw new NoSuchElementException();
+				E element = (E) slots[k];
+				// successor: leftmost slot of the right subtree, else the
+				// nearest ancestor this slot is in the left subtree of
+				if (2 * k + 1 <= size) {
+					k = first(2 * k + 1);
+				} else {
+					k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+				}
+				return element;
+			}
+
+			private int first(int k) {
+				if (k > size)
+					return 0;
+				while (2 * k <= size)
+					k = 2 * k;
+				return k;
+			}
+		};
+	}
+}
@@ -0,0 +1,176 @@
+package implementations;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * IngestStats collects the numbers printed by WordTracker's -stats option:
+ * the wall time of every phase of a run, the files indexed or skipped as
+ * unchanged, the number of tokens read, the key comparisons made while
+ * looking them up in the tree and how many of the ingested words were new
+ * to the repository.
+ *
+ * Workers count into their own local variables and add their totals here
+ * once they are done, so collecting the numbers costs next to nothing
+ * whether or not they are printed.
+ */
+public class IngestStats {
+	private final Map<String, Long> phases = new LinkedHashMap<>();
+	private long tokens;
+	private long comparisons;
+	private long newWords;
+	private long existingWords;
+	private long files;
+	private long unchangedFiles;
+	private long evictedWords;
+	private long runs;
+	private TreeStats treeStats;
+
+	/**
+	 * Adds the time since {@code startNanos} to a phase. Phases are printed in
+	 * the order they were first recorded.
+	 *
+	 * @param phase phase name, e.g. "loadRepository"
+	 * @param startNanos value of {@link System#nanoTime()} when the phase started
+	 */
+	public synchronized void endPhase(String phase, long startNanos) {
+		phases.merge(phase, System.nanoTime() - startNanos, Long::sum);
+	}
+
+	/**
+	 * Adds the counts of one tokenized file or chunk.
+	 *
+	 * @param tokens words read
+	 * @param comparisons key comparisons made while looking them up
+	 */
+	public synchronized void addTokens(long tokens, long comparisons) {
+		this.tokens += tokens;
+		this.comparisons += comparisons;
+	}
+
+	/**
+	 * Adds the result of merging words into the repository.
+	 *
+	 * @param newWords words that were not in the repository yet
+	 * @param existingWords words that already were
+	 */
+	public synchronized void addWords(long newWords, long existingWords) {
+		this.newWords += newWords;
+		this.existingWords += existingWords;
+	}
+
+	/**
+	 * Adds to the number of input files ingested and skipped.
+	 *
+	 * @param files files that were (re-)indexed
+	 * @param unchangedFiles files skipped because they had not changed
+	 */
+	public synchronized void addFiles(long files, long unchangedFiles) {
+		this.files += files;
+		this.unchangedFiles += unchangedFiles;
+	}
+
+	/**
+	 * Adds to the number of rare words evicted to keep the vocabulary under
+	 * its cap.
+	 *
+	 * @param words words evicted
+	 */
+	public synchronized void addEvicted(long words) {
+		this.evictedWords += words;
+	}
+
+	/**
+	 * Adds to the number of sorted runs spilled to disk by an ingest into an
+	 * on-disk index.
+	 *
+	 * @param runs runs written
+	 */
+	public synchronized void addRuns(long runs) {
+		this.runs += runs;
+	}
+
+	/**
+	 * Records the shape of the repository tree after the ingest.
+	 *
+	 * @param treeStats tree shape
+	 */
+	public synchronized void setTreeStats(TreeStats treeStats) {
+		this.treeStats = treeStats;
+	}
+
+	/**
+	 * Returns the total time recorded for a phase.
+	 *
+	 * @param phase phase name
+	 * @return nanoseconds, 0 if the phase did not run
+	 */
+	public synchronized long getPhaseNanos(String phase) {
+		return phases.getOrDefault(phase, 0L);
+	}
+
+	/**
+	 * Returns the number of words read.
+	 *
+	 * @return token count
+	 */
+	public synchronized long getTokens() {
+		return tokens;
+	}
+
+	/**
+	 * Returns the number of key comparisons made while looking up the words.
+	 *
+	 * @return comparison count
+	 */
+	public synchronized long getComparisons() {
+		return comparisons;
+	}
+
+	/**
+	 * Returns the number of ingested words that were new to the repository.
+	 *
+	 * @return new word count
+	 */
+	public synchronized long getNewWords() {
+		return newWords;
+	}
+
+	/**
+	 * Returns the number of ingested words that were already in the repository.
+	 *
+	 * @return existing word count
+	 */
+	public synchronized long getExistingWords() {
+		return existingWords;
+	}
+
+	/**
+	 * Prints the statistics.
+	 *
+	 * @param out stream to print to
+	 */
+	public synchronized void print(PrintStream out) {
+		out.println("Statistics:");
+		for (Map.Entry<String, Long> phase : phases.entrySet()) {
+			out.printf("  %-18s %10.1f ms%n", phase.getKey(), phase.getValue() / 1e6);
+		}
+		long ingest = getPhaseNanos("processInputFile");
+		if (ingest > 0) {
+			out.printf("  %-18s %10d (%d unchanged, skipped)%n", "files", files, unchangedFiles);
+			out.printf("  %-18s %10d (%.0f tokens/s)%n", "tokens", tokens, tokens / (ingest / 1e9));
+			out.printf("  %-18s %10d (%.1f per token)%n", "key comparisons", comparisons,
+					tokens == 0 ? 0.0 : (double) comparisons / tokens);
+			out.printf("  %-18s %10d%n", "new words", newWords);
+			out.printf("  %-18s %10d%n", "existing words", existingWords);
+			if (evictedWords > 0)
+				out.printf("  %-18s %10d%n", "evicted words", evictedWords);
+			if (runs > 0)
+				out.printf("  %-18s %10d%n", "spilled runs", runs);
+		}
+		if (treeStats != null) {
+			out.println("  tree: " + treeStats.toString().replace(System.lineSeparator(), System.lineSeparator() + "  "));
+		}
+	}
+}
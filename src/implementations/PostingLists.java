@@ -0,0 +1,94 @@
+package implementations;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PostingLists holds the helpers used to combine the line-number lists
+ * ("posting lists") stored for each word and file in a
+ * {@link WordTracker.WordInfo}.
+ *
+ * Lists are handled as sorted arrays of distinct line numbers. Intersections
+ * gallop through the longer list (exponential then binary search), so
+ * intersecting a short list with a long one costs O(m log(n/m)) rather than
+ * O(m + n).
+ */
+public final class PostingLists {
+
+	private PostingLists() {
+	}
+
+	/**
+	 * Converts a stored posting list into a sorted array of distinct line
+	 * numbers. A word that occurs several times on a line appears once.
+	 *
+	 * @param lines line numbers as stored (usually ascending, may repeat)
+	 * @return sorted, distinct line numbers
+	 */
+	public static int[] toSortedArray(List<Integer> lines) {
+		int[] result = new int[lines.size()];
+		boolean sorted = true;
+		for (int i = 0; i < result.length; i++) {
+			result[i] = lines.get(i);
+			if (i > 0 && result[i] < result[i - 1])
+				sorted = false;
+		}
+		if (!sorted)
+			Arrays.sort(result);
+		int n = 0;
+		for (int i = 0; i < result.length; i++) {
+			if (n == 0 || result[i] != result[n - 1])
+				result[n++] = result[i];
+		}
+		return n == result.length ? result : Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Intersects two sorted arrays of distinct values.
+	 *
+	 * @param a first sorted array
+	 * @param b second sorted array
+	 * @return the values found in both, sorted
+	 */
+	public static int[] intersect(int[] a, int[] b) {
+		if (a.length > b.length) {
+			int[] t = a;
+			a = b;
+			b = t;
+		}
+		int[] result = new int[a.length];
+		int n = 0;
+		int lo = 0;
+		for (int value : a) {
+			lo = gallop(b, lo, value);
+			if (lo == b.length)
+				break;
+			if (b[lo] == value)
+				result[n++] = value;
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Finds the first position at or after {@code from} whose value is not
+	 * less than {@code key}, probing 1, 2, 4, ... positions ahead before
+	 * binary searching the bracketed range.
+	 */
+	private static int gallop(int[] values, int from, int key) {
+		int bound = 1;
+		while (from + bound < values.length && values[from + bound] < key)
+			bound <<= 1;
+		int lo = from + (bound >> 1);
+		int hi = Math.min(from + bound, values.length - 1);
+		if (lo >= values.length)
+			return values.length;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (values[mid] < key)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+}
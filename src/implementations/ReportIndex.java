@@ -0,0 +1,214 @@
+package implementations;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ReportIndex records where every word's entry sits inside a report file
+ * written by {@link WordTracker}, together with the repository (its id and
+ * generation) the report was rendered from.
+ *
+ * It is saved next to the report (as "&lt;report&gt;.idx") so the next run can
+ * copy unchanged entries straight from the old report and only re-render the
+ * words touched by its ingest. Offsets and lengths are in bytes of the
+ * encoded report; entries are kept in word order.
+ */
+public class ReportIndex {
+	private static final int MAGIC = 0x57544932; // "WTI2"; "WTIX" indexes had no repository id
+
+	private final String option;
+	private final long repositoryId;
+	private final long generation;
+	private final String separator;
+	private long reportLength;
+	private final List<String> words = new ArrayList<>();
+	private long[] offsets = new long[64];
+	private int[] lengths = new int[64];
+
+	/**
+	 * Creates an empty index for a report about to be written.
+	 *
+	 * @param option report format (-pf, -pl, -po)
+	 * @param repositoryId id of the repository the report is rendered from
+	 * @param generation repository generation the report is rendered from
+	 * @param separator line separator used between entries
+	 */
+	public ReportIndex(String option, long repositoryId, long generation, String separator) {
+		this.option = option;
+		this.repositoryId = repositoryId;
+		this.generation = generation;
+		this.separator = separator;
+	}
+
+	/**
+	 * Returns the path of the index file belonging to a report.
+	 *
+	 * @param report report file
+	 * @return index file path
+	 */
+	public static Path pathFor(Path report) {
+		return report.resolveSibling(report.getFileName() + ".idx");
+	}
+
+	/**
+	 * Records the next entry of the report.
+	 *
+	 * @param word word the entry is for
+	 * @param offset byte offset of the entry in the report
+	 * @param length length of the entry in bytes
+	 */
+	public void add(String word, long offset, int length) {
+		int n = words.size();
+		if (n == offsets.length) {
+			offsets = Arrays.copyOf(offsets, n * 2);
+			lengths = Arrays.copyOf(lengths, n * 2);
+		}
+		words.add(word);
+		offsets[n] = offset;
+		lengths[n] = length;
+	}
+
+	/**
+	 * Returns the number of entries.
+	 *
+	 * @return entry count
+	 */
+	public int size() {
+		return words.size();
+	}
+
+	/**
+	 * Returns the word of an entry.
+	 *
+	 * @param i entry position
+	 * @return word
+	 */
+	public String getWord(int i) {
+		return words.get(i);
+	}
+
+	/**
+	 * Returns the byte offset of an entry in the report.
+	 *
+	 * @param i entry position
+	 * @return byte offset
+	 */
+	public long getOffset(int i) {
+		return offsets[i];
+	}
+
+	/**
+	 * Returns the length of an entry in bytes.
+	 *
+	 * @param i entry position
+	 * @return length in bytes
+	 */
+	public int getLength(int i) {
+		return lengths[i];
+	}
+
+	/**
+	 * Returns the report format.
+	 *
+	 * @return -pf, -pl or -po
+	 */
+	public String getOption() {
+		return option;
+	}
+
+	/**
+	 * Returns the id of the repository the report was rendered from.
+	 *
+	 * @return repository id
+	 */
+	public long getRepositoryId() {
+		return repositoryId;
+	}
+
+	/**
+	 * Returns the repository generation the report was rendered from.
+	 *
+	 * @return repository generation
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Returns the line separator used in the report.
+	 *
+	 * @return line separator
+	 */
+	public String getSeparator() {
+		return separator;
+	}
+
+	/**
+	 * Returns the length of the complete report file in bytes.
+	 *
+	 * @return report length
+	 */
+	public long getReportLength() {
+		return reportLength;
+	}
+
+	/**
+	 * Sets the length of the complete report file in bytes.
+	 *
+	 * @param reportLength report length
+	 */
+	public void setReportLength(long reportLength) {
+		this.reportLength = reportLength;
+	}
+
+	/**
+	 * Writes the index to disk.
+	 *
+	 * @param path index file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(Path path) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeUTF(option);
+			out.writeLong(repositoryId);
+			out.writeLong(generation);
+			out.writeUTF(separator);
+			out.writeLong(reportLength);
+			out.writeInt(words.size());
+			for (int i = 0; i < words.size(); i++) {
+				out.writeUTF(words.get(i));
+				out.writeLong(offsets[i]);
+				out.writeInt(lengths[i]);
+			}
+		}
+	}
+
+	/**
+	 * Reads an index from disk.
+	 *
+	 * @param path index file
+	 * @return the index, or null if the file is missing or not a valid index
+	 */
+	public static ReportIndex load(Path path) {
+		if (!Files.isRegularFile(path))
+			return null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC)
+				return null;
+			ReportIndex index = new ReportIndex(in.readUTF(), in.readLong(), in.readLong(), in.readUTF());
+			index.reportLength = in.readLong();
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				index.add(in.readUTF(), in.readLong(), in.readInt());
+			}
+			return index;
+		} catch (IOException e) {
+			return null; // treat a damaged index like a missing one
+		}
+	}
+}
@@ -0,0 +1,527 @@
+package implementations;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import implementations.WordTracker.WordInfo;
+
+/**
+ * Repository is what {@link WordTracker} persists between runs: the word tree
+ * plus the bookkeeping needed to work incrementally.
+ *
+ * The generation is bumped after every ingest, so anything derived from it
+ * (such as a report and its word index) can tell whether it still matches
+ * the repository it was built from. Generations start at 0 in every new
+ * repository, so a random id tells repositories apart as well. The set of
+ * words touched by the current ingest is kept in memory only.
+ *
+ * For every ingested file the repository also keeps a {@link FileRecord} of
+ * its content, so re-ingesting an unchanged file can be skipped and a changed
+ * one replaces its old postings instead of adding to them. A second index
+ * maps every file to the words occurring in it, so removing a file or
+ * listing its words only visits those words.
+ */
+public class Repository implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final BSTree<WordInfo> tree;
+	// random, fixed for the life of the repository; 0 in repositories saved
+	// before it existed, which get one on load
+	private long id = newId();
+	private long generation;
+	// file name -> content of the file when it was last ingested; null in
+	// repositories saved before files were tracked
+	private Map<String, FileRecord> files = new HashMap<>();
+	// file name -> words with postings in that file, by WordInfo.getKey();
+	// null in repositories saved before it existed, rebuilt from the tree on
+	// load
+	private Map<String, Set<CharSequence>> fileWords = new HashMap<>();
+	// keys of the words changed by the current ingest
+	private transient Set<CharSequence> dirty = new HashSet<>();
+	// under copy-on-write, the files whose word sets are this repository's own
+	private transient Set<String> ownFileWords = new HashSet<>();
+	// when set, WordInfo objects shared with another repository are copied before being changed
+	private transient boolean copyOnWrite;
+	// words by occurrence count; built on first use or when saved, then kept
+	// up to date; null in repositories saved before it was persisted
+	private FrequencyIndex frequencies;
+	// holds the letters of the tree's words once useArena was called
+	private transient WordArena arena;
+	// read-only copy of the tree for lookups; set by freeze, dropped by any change
+	private transient FrozenTree<WordInfo> frozen;
+	// words that may be in the tree; saved in the repository file's header
+	private transient BloomFilter bloom;
+
+	/**
+	 * Creates an empty repository.
+	 */
+	public Repository() {
+		this(new BSTree<>());
+	}
+
+	/**
+	 * Wraps an existing word tree, e.g. one saved by an older version that
+	 * persisted the bare tree.
+	 *
+	 * @param tree word tree to hold
+	 */
+	public Repository(BSTree<WordInfo> tree) {
+		this.tree = tree;
+		indexFiles();
+	}
+
+	// Creates a repository around a tree whose file index is already known
+	private Repository(BSTree<WordInfo> tree, Map<String, Set<CharSequence>> fileWords) {
+		this.tree = tree;
+		this.fileWords = fileWords;
+	}
+
+	/**
+	 * Returns a copy of this repository that ingests can be applied to while
+	 * this one stays unchanged, e.g. while it is still being read by other
+	 * threads. The tree nodes are copied up front; the WordInfo objects are
+	 * shared and only copied when an ingest changes them.
+	 *
+	 * @return writable copy of this repository
+	 */
+	public Repository copyForWrite() {
+		// the word sets of the file index are copied when first changed
+		Repository copy = new Repository(new BSTree<>(tree), new HashMap<>(fileWords));
+		copy.id = id;
+		copy.generation = generation;
+		copy.files = new HashMap<>(files);
+		copy.copyOnWrite = true;
+		copy.arena = arena; // only ever appended to, by one writer at a time
+		if (bloom != null)
+			copy.bloom = new BloomFilter(bloom);
+		if (frequencies != null)
+			copy.frequencies = new FrequencyIndex(frequencies);
+		return copy;
+	}
+
+	/**
+	 * Moves the words of the tree into a {@link WordArena}, and every word an
+	 * ingest adds from then on. Meant for a repository that stays in memory
+	 * for long, such as the daemon's: the old generation then holds a few
+	 * large arrays instead of a String per word. The file and frequency
+	 * indexes are rebuilt to refer to the words in the arena, so they hold no
+	 * String per word either. The arena is not saved; the words are
+	 * serialized as Strings as before. Must be called before the repository
+	 * is shared with other threads or copied.
+	 */
+	public void useArena() {
+		if (arena != null)
+			return;
+		frozen = null;
+		arena = new WordArena();
+		if (tree.isEmpty())
+			return;
+		// word -> its key in the arena, to rewrite the indexes with
+		Map<CharSequence, CharSequence> keys = new HashMap<>();
+		java.util.ArrayDeque<BSTreeNode<WordInfo>> stack = new java.util.ArrayDeque<>();
+		stack.push(tree.getRoot());
+		while (!stack.isEmpty()) {
+			BSTreeNode<WordInfo> node = stack.pop();
+			WordInfo stored = node.getData().storeIn(arena);
+			keys.put(node.getData().getKey(), stored.getKey());
+			node.setData(stored);
+			if (node.getLeft() != null)
+				stack.push(node.getLeft());
+			if (node.getRight() != null)
+				stack.push(node.getRight());
+		}
+		for (Map.Entry<String, Set<CharSequence>> entry : fileWords.entrySet()) {
+			Set<CharSequence> words = new HashSet<>();
+			for (CharSequence word : entry.getValue()) {
+				words.add(keys.get(word));
+			}
+			entry.setValue(words);
+		}
+		Set<CharSequence> touched = new HashSet<>();
+		for (CharSequence word : dirty) {
+			touched.add(keys.getOrDefault(word, word));
+		}
+		dirty = touched;
+		if (frequencies != null)
+			frequencies = new FrequencyIndex(tree);
+	}
+
+	/**
+	 * Lays the tree out for lookups with {@link BSTree#freeze()}; used for
+	 * the daemon's published snapshots, which are only read. The frozen copy
+	 * is dropped by the next change made through this repository.
+	 */
+	public void freeze() {
+		frozen = tree.freeze();
+	}
+
+	/**
+	 * Looks a word up, in the frozen copy of the tree if there is one. Words
+	 * the Bloom filter, if there is one, rules out are not searched for.
+	 *
+	 * @param word word to look up
+	 * @return the word's info, or null if it is not in the repository
+	 */
+	public WordInfo find(String word) {
+		if (bloom != null && !bloom.mightContain(word))
+			return null;
+		WordInfo probe = new WordInfo(word);
+		if (frozen != null)
+			return frozen.search(probe);
+		BSTreeNode<WordInfo> node = tree.search(probe);
+		return node == null ? null : node.getData();
+	}
+
+	/**
+	 * Returns the Bloom filter of the words in the tree. It is built the
+	 * first time it is asked for, unless one was loaded with the repository,
+	 * and kept up to date by every ingest through this repository afterwards.
+	 *
+	 * @return Bloom filter
+	 */
+	public BloomFilter getBloomFilter() {
+		if (bloom == null)
+			bloom = new BloomFilter(tree);
+		return bloom;
+	}
+
+	/**
+	 * Sets the Bloom filter, e.g. one read from the repository file's header.
+	 *
+	 * @param bloom filter holding at least every word in the tree
+	 */
+	public void setBloomFilter(BloomFilter bloom) {
+		this.bloom = bloom;
+	}
+
+	/**
+	 * Returns the arena the words are held in.
+	 *
+	 * @return word arena, or null unless {@link #useArena()} was called
+	 */
+	public WordArena getArena() {
+		return arena;
+	}
+
+	/**
+	 * Returns the word tree.
+	 *
+	 * @return word tree
+	 */
+	public BSTree<WordInfo> getTree() {
+		return tree;
+	}
+
+	/**
+	 * Returns the id of this repository, chosen at random when it was created
+	 * and kept when it is saved, loaded or copied.
+	 *
+	 * @return repository id, never 0
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the number of ingests applied to this repository.
+	 *
+	 * @return generation number
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Advances the generation; called after every ingest.
+	 */
+	public void nextGeneration() {
+		generation++;
+	}
+
+	/**
+	 * Returns the index of words by occurrence count. It is saved with the
+	 * repository; one saved without it builds it from the tree the first
+	 * time it is asked for. Every change made through this repository keeps
+	 * it up to date.
+	 *
+	 * @return frequency index
+	 */
+	public FrequencyIndex getFrequencyIndex() {
+		if (frequencies == null)
+			frequencies = new FrequencyIndex(tree);
+		return frequencies;
+	}
+
+	/**
+	 * Returns the words whose occurrences changed during the current ingest.
+	 *
+	 * @return set of changed words, as their {@link WordInfo#getKey() keys}
+	 */
+	public Set<CharSequence> getDirtyWords() {
+		return dirty;
+	}
+
+	/**
+	 * Returns what a file looked like when it was last ingested.
+	 *
+	 * @param fileName file name as used in the postings
+	 * @return the file's record, or null if it has not been ingested
+	 */
+	public FileRecord getFileRecord(String fileName) {
+		return files.get(fileName);
+	}
+
+	/**
+	 * Records the content of a file that has just been ingested.
+	 *
+	 * @param fileName file name as used in the postings
+	 * @param record size and hash of the ingested content
+	 */
+	public void putFileRecord(String fileName, FileRecord record) {
+		files.put(fileName, record);
+	}
+
+	/**
+	 * Removes every posting of a file, e.g. before re-ingesting it after it
+	 * changed. Words left without any posting are removed from the tree. The
+	 * file's record is removed as well.
+	 *
+	 * @param fileName file name as used in the postings
+	 * @return number of words that had postings in the file
+	 */
+	public int removeFile(String fileName) {
+		frozen = null;
+		files.remove(fileName);
+		ownFileWords.remove(fileName);
+		Set<CharSequence> words = fileWords.remove(fileName);
+		if (words == null)
+			return 0;
+		for (CharSequence word : words) {
+			BSTreeNode<WordInfo> node = edit(WordInfo.probe(word));
+			int before = node.getData().getCount();
+			node.getData().removeFile(fileName);
+			counted(word, before, node.getData().getCount());
+			removeIfEmpty(node);
+		}
+		return words.size();
+	}
+
+	/**
+	 * Returns the words that occur in a file.
+	 *
+	 * @param fileName file name as used in the postings
+	 * @return unmodifiable set of words, as their {@link WordInfo#getKey() keys}; empty if the file is unknown
+	 */
+	public Set<CharSequence> getWordsInFile(String fileName) {
+		Set<CharSequence> words = fileWords.get(fileName);
+		return words == null ? Collections.<CharSequence>emptySet() : Collections.unmodifiableSet(words);
+	}
+
+	/**
+	 * Removes the postings of some words on the last lines of a file, from a
+	 * given line on. Used by tail mode to take back what was recorded for a
+	 * line that was still being written when it was ingested.
+	 *
+	 * @param fileName file name as used in the postings
+	 * @param fromLine first line whose postings are removed
+	 * @param words words that were recorded on those lines
+	 */
+	public void removeLines(String fileName, int fromLine, Collection<String> words) {
+		frozen = null;
+		for (String word : words) {
+			WordInfo probe = new WordInfo(word);
+			if (tree.search(probe) == null)
+				continue;
+			BSTreeNode<WordInfo> node = edit(probe);
+			CharSequence key = node.getData().getKey();
+			int before = node.getData().getCount();
+			node.getData().removeLinesFrom(fileName, fromLine);
+			counted(key, before, node.getData().getCount());
+			if (!node.getData().getLocations().containsKey(fileName))
+				wordsForWrite(fileName).remove(key);
+			removeIfEmpty(node);
+		}
+	}
+
+	/**
+	 * Caps the number of distinct words by removing the least frequent ones,
+	 * by total count, until at most {@code maxWords} are left. The removed
+	 * WordInfo objects are returned unchanged, e.g. to be kept in a
+	 * {@link ColdStore}; they stay in the Bloom filter until it is rebuilt.
+	 *
+	 * @param maxWords number of words to keep
+	 * @return the words removed, least frequent first
+	 */
+	public List<WordInfo> evict(int maxWords) {
+		int excess = tree.size() - maxWords;
+		if (excess <= 0)
+			return Collections.emptyList();
+		frozen = null;
+		List<WordInfo> evicted = new ArrayList<>(excess);
+		for (Map.Entry<CharSequence, Integer> entry : getFrequencyIndex().bottom(excess)) {
+			CharSequence word = entry.getKey();
+			WordInfo wi = tree.search(WordInfo.probe(word)).getData();
+			for (String file : wi.getLocations().keySet()) {
+				wordsForWrite(file).remove(word);
+			}
+			dirty.add(word);
+			counted(word, wi.getCount(), 0);
+			tree.remove(wi);
+			evicted.add(wi);
+		}
+		return evicted;
+	}
+
+	// Finds the node of a word about to be changed, marking the word dirty and
+	// copying a WordInfo that may still be shared with another repository
+	private BSTreeNode<WordInfo> edit(WordInfo word) {
+		BSTreeNode<WordInfo> node = tree.search(word);
+		if (dirty.add(node.getData().getKey()) && copyOnWrite) {
+			node.setData(node.getData().copy());
+		}
+		return node;
+	}
+
+	// Fills the file to words index from the tree
+	private void indexFiles() {
+		utilities.Iterator<WordInfo> it = tree.inorderIterator();
+		while (it.hasNext()) {
+			WordInfo wi = it.next();
+			for (String file : wi.getLocations().keySet()) {
+				wordsForWrite(file).add(wi.getKey());
+			}
+		}
+	}
+
+	// Returns the word set of a file for changing, copying it first if it may
+	// still be shared with another repository
+	private Set<CharSequence> wordsForWrite(String fileName) {
+		Set<CharSequence> words = fileWords.get(fileName);
+		if (words == null) {
+			words = new HashSet<>();
+			fileWords.put(fileName, words);
+			ownFileWords.add(fileName);
+		} else if (copyOnWrite && ownFileWords.add(fileName)) {
+			words = new HashSet<>(words);
+			fileWords.put(fileName, words);
+		}
+		return words;
+	}
+
+	// Keeps the frequency index, if built, in step with a word's new count
+	private void counted(CharSequence word, int oldCount, int newCount) {
+		if (frequencies != null)
+			frequencies.update(word, oldCount, newCount);
+	}
+
+	private void removeIfEmpty(BSTreeNode<WordInfo> node) {
+		if (node.getData().getLocations().isEmpty()) {
+			tree.remove(node.getData());
+		}
+	}
+
+	/**
+	 * Merges a locally built tree into the repository tree. The local tree is
+	 * walked in pre-order so that, when its words are new, they are inserted
+	 * in an order that keeps the local tree's shape instead of degenerating
+	 * into a list. The local tree must not be used afterwards since its
+	 * WordInfo objects are moved into the repository.
+	 *
+	 * @param local tree built for one input (or part of one)
+	 * @return number of words that were not in the repository before
+	 */
+	public int merge(BSTree<WordInfo> local) {
+		frozen = null;
+		int added = 0;
+		utilities.Iterator<WordInfo> it = local.preorderIterator();
+		while (it.hasNext()) {
+			WordInfo wi = it.next();
+			BSTreeNode<WordInfo> node = tree.search(wi);
+			// the indexes refer to the word as the repository holds it
+			CharSequence key;
+			if (node == null) {
+				WordInfo stored = arena == null ? wi : wi.storeIn(arena);
+				key = stored.getKey();
+				dirty.add(key);
+				if (bloom != null)
+					bloom.add(key);
+				tree.add(stored);
+				counted(key, 0, stored.getCount());
+				added++;
+			} else {
+				key = node.getData().getKey();
+				if (dirty.add(key) && copyOnWrite) {
+					node.setData(node.getData().copy());
+				}
+				int before = node.getData().getCount();
+				node.getData().addAll(wi);
+				counted(key, before, node.getData().getCount());
+			}
+			for (String file : wi.getLocations().keySet()) {
+				wordsForWrite(file).add(key);
+			}
+		}
+		if (bloom != null && tree.size() > bloom.getCapacity())
+			bloom = new BloomFilter(tree);
+		return added;
+	}
+
+	private static long newId() {
+		long id;
+		do {
+			id = java.util.concurrent.ThreadLocalRandom.current().nextLong();
+		} while (id == 0);
+		return id;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		// the frequency index is saved so -pc and eviction need not rebuild it
+		// on load; one not built yet is built for the file only, since the
+		// daemon saves published snapshots, which must not change
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("tree", tree);
+		fields.put("id", id);
+		fields.put("generation", generation);
+		fields.put("files", files);
+		fields.put("fileWords", arena == null ? fileWords : wordsAsStrings(fileWords));
+		fields.put("frequencies", frequencies != null ? frequencies : new FrequencyIndex(tree));
+		out.writeFields();
+	}
+
+	// Copies the file index with its words as Strings, for saving
+	private static Map<String, Set<CharSequence>> wordsAsStrings(Map<String, Set<CharSequence>> fileWords) {
+		Map<String, Set<CharSequence>> saved = new HashMap<>();
+		for (Map.Entry<String, Set<CharSequence>> entry : fileWords.entrySet()) {
+			Set<CharSequence> words = new HashSet<>();
+			for (CharSequence word : entry.getValue()) {
+				words.add(word.toString());
+			}
+			saved.put(entry.getKey(), words);
+		}
+		return saved;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		dirty = new HashSet<>();
+		ownFileWords = new HashSet<>();
+		if (id == 0)
+			id = newId();
+		if (files == null)
+			files = new HashMap<>();
+		if (fileWords == null) {
+			fileWords = new HashMap<>();
+			indexFiles();
+		}
+	}
+}
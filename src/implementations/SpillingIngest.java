@@ -0,0 +1,329 @@
+package implementations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import implementations.WordTracker.WordInfo;
+
+/**
+ * SpillingIngest ingests files into a {@link DiskIndex} in bounded memory,
+ * for WordTracker's -index option. Postings go into an in-memory tree as
+ * usual; when its estimated size reaches the budget, the tree is written to
+ * a temporary file as a sorted run and a new tree is started. At the end the
+ * index and the runs are merged k ways, one word at a time, into a new
+ * index, which then replaces the old one.
+ *
+ * The merge copies the postings one group at a time, so neither the index
+ * nor the input has to fit in memory: the heap holds the budget's tree, the
+ * file table and a buffer per merged file. So that the last is bounded too,
+ * every {@value #MAX_FAN_IN} runs of the same size are merged into one run
+ * as soon as they are written, as are every {@value #MAX_FAN_IN} of those.
+ *
+ * Runs are written and merged in ingest order, after the index, so the
+ * lines of a word in one file are still in ascending order after merging.
+ * A file ingested again or removed has its postings in the old index left
+ * out of the merge; the file gets a new id for its new postings.
+ */
+class SpillingIngest implements Closeable {
+	// rough heap cost of a posting (a boxed line number in a list) and of a
+	// word (node, WordInfo, map entry, list and String) in the in-memory tree
+	private static final long BYTES_PER_POSTING = 24;
+	private static final long BYTES_PER_WORD = 200;
+	// runs merged into one at a time
+	private static final int MAX_FAN_IN = 16;
+
+	private final DiskIndex index;
+	private final long budget;
+	// the file table of the index being written
+	private final Map<String, Integer> ids;
+	private final Map<String, FileRecord> records = new HashMap<>();
+	private int nextId;
+	// ids whose postings in the old index are left out
+	private final Set<Integer> dropped = new HashSet<>();
+	private boolean changed;
+	private final List<Run> runs = new ArrayList<>();
+	private int spilled;
+	// run files created so far, to name the next one
+	private int created;
+	private Path dir;
+	private BSTree<WordInfo> tree = new BSTree<>();
+	private long postings;
+
+	/**
+	 * @param index index to ingest into
+	 * @param budget bytes of heap the in-memory tree may take before it is spilled
+	 */
+	SpillingIngest(DiskIndex index, long budget) {
+		this.index = index;
+		this.budget = budget;
+		this.ids = new LinkedHashMap<>(index.getFileIds());
+		for (Map.Entry<String, Integer> file : ids.entrySet()) {
+			records.put(file.getKey(), index.getFileRecord(file.getKey()));
+			nextId = Math.max(nextId, file.getValue() + 1);
+		}
+	}
+
+	/**
+	 * Returns the record of a file from its last ingest.
+	 *
+	 * @param fileName file name as used in the postings
+	 * @return record, or null if the file is not in the index
+	 */
+	FileRecord getFileRecord(String fileName) {
+		return records.get(fileName);
+	}
+
+	/**
+	 * Leaves a file's postings out of the new index, and its record.
+	 *
+	 * @param fileName file name as used in the postings
+	 * @return false if the file is not in the index
+	 */
+	boolean remove(String fileName) {
+		Integer id = ids.remove(fileName);
+		records.remove(fileName);
+		if (id == null)
+			return false;
+		dropped.add(id);
+		changed = true;
+		return true;
+	}
+
+	/**
+	 * Starts ingesting a file: its old postings are left out and the
+	 * postings added to the tree from now on are its new ones.
+	 *
+	 * @param fileName file name as used in the postings
+	 */
+	void startFile(String fileName) {
+		remove(fileName);
+		ids.put(fileName, nextId++);
+		changed = true;
+	}
+
+	/**
+	 * Records a file once it has been ingested.
+	 *
+	 * @param fileName file name as used in the postings
+	 * @param record size and hash of the ingested content
+	 */
+	void putFileRecord(String fileName, FileRecord record) {
+		records.put(fileName, record);
+	}
+
+	/**
+	 * Returns the tree the next posting is to be added to.
+	 *
+	 * @return current in-memory tree
+	 */
+	BSTree<WordInfo> getTree() {
+		return tree;
+	}
+
+	/**
+	 * Records that a posting was added to the current tree, spilling the tree
+	 * to a run if it has reached the budget.
+	 *
+	 * @throws IOException if the run cannot be written
+	 */
+	void added() throws IOException {
+		postings++;
+		if (postings * BYTES_PER_POSTING + tree.size() * BYTES_PER_WORD >= budget) {
+			spill();
+		}
+	}
+
+	/**
+	 * Merges the index, the runs and the last tree into a new index and moves
+	 * it over the old one. Nothing is written when no file was ingested or
+	 * removed.
+	 *
+	 * @param stats statistics to add the word and run counts to
+	 * @return number of words that lost postings of the files ingested again or removed
+	 * @throws IOException if the index or a run cannot be read or written
+	 */
+	long commit(IngestStats stats) throws IOException {
+		if (!changed)
+			return 0;
+		if (!tree.isEmpty())
+			spill();
+		Path target = index.getPath();
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		List<DiskIndex.Records> sources = new ArrayList<>();
+		try {
+			if (index.exists())
+				sources.add(index.open());
+			for (Run run : runs) {
+				sources.add(new DiskIndex.Records(Files.newInputStream(run.path)));
+			}
+			long[] counts;
+			try (DiskIndex.Writer writer = new DiskIndex.Writer(temp, true)) {
+				counts = merge(sources, index.exists(), writer);
+				writer.finish(ids, records);
+			}
+			close(sources);
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			stats.addWords(counts[0], counts[1]);
+			stats.addRuns(spilled);
+			return counts[2];
+		} finally {
+			close(sources);
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Deletes the runs.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (Run run : runs) {
+			Files.deleteIfExists(run.path);
+		}
+		runs.clear();
+		if (dir != null) {
+			Files.deleteIfExists(dir);
+			dir = null;
+		}
+	}
+
+	// Writes the current tree, in word order, to a new run and starts a new
+	// tree; then merges the newest runs while MAX_FAN_IN of them are of the
+	// same level
+	private void spill() throws IOException {
+		Path path = newRun();
+		try (DiskIndex.Writer writer = new DiskIndex.Writer(path, false)) {
+			utilities.Iterator<WordInfo> it = tree.inorderIterator();
+			while (it.hasNext()) {
+				writer.write(it.next(), ids::get);
+			}
+			writer.finish(null, null);
+		}
+		runs.add(new Run(path, 0));
+		spilled++;
+		tree = new BSTree<>();
+		postings = 0;
+
+		while (runs.size() >= MAX_FAN_IN
+				&& runs.get(runs.size() - MAX_FAN_IN).level == runs.get(runs.size() - 1).level) {
+			List<Run> merged = runs.subList(runs.size() - MAX_FAN_IN, runs.size());
+			Path into = newRun();
+			List<DiskIndex.Records> sources = new ArrayList<>();
+			try {
+				for (Run run : merged) {
+					sources.add(new DiskIndex.Records(Files.newInputStream(run.path)));
+				}
+				try (DiskIndex.Writer writer = new DiskIndex.Writer(into, false)) {
+					merge(sources, false, writer);
+					writer.finish(null, null);
+				}
+			} finally {
+				close(sources);
+			}
+			int level = merged.get(0).level + 1;
+			for (Run run : merged) {
+				Files.delete(run.path);
+			}
+			merged.clear();
+			runs.add(new Run(into, level));
+		}
+	}
+
+	private Path newRun() throws IOException {
+		if (dir == null) {
+			Path parent = index.getPath().toAbsolutePath().getParent();
+			dir = Files.createTempDirectory(parent, "wordtracker-spill");
+		}
+		return dir.resolve("run-" + created++);
+	}
+
+	/**
+	 * Merges records word by word into a writer. Within a word the groups of
+	 * the sources are copied in source order, leaving out those of dropped
+	 * file ids.
+	 *
+	 * @param sources records to merge, each positioned before its first word
+	 * @param withIndex true if the first source is the old index
+	 * @param writer where the merged records go
+	 * @return words with postings from the runs that were new and that were
+	 *         in the old index, and words that lost dropped postings
+	 */
+	private long[] merge(List<DiskIndex.Records> sources, boolean withIndex, DiskIndex.Writer writer)
+			throws IOException {
+		long[] counts = new long[3];
+		PriorityQueue<Integer> queue = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> {
+			int cmp = sources.get(a).getWord().compareTo(sources.get(b).getWord());
+			return cmp != 0 ? cmp : Integer.compare(a, b);
+		});
+		for (int i = 0; i < sources.size(); i++) {
+			if (sources.get(i).next())
+				queue.add(i);
+		}
+		while (!queue.isEmpty()) {
+			String word = sources.get(queue.peek()).getWord();
+			boolean written = false;
+			boolean old = false;
+			boolean ingested = false;
+			boolean lost = false;
+			while (!queue.isEmpty() && sources.get(queue.peek()).getWord().equals(word)) {
+				int i = queue.poll();
+				DiskIndex.Records source = sources.get(i);
+				for (int file; (file = source.nextFile()) != DiskIndex.END;) {
+					if (dropped.contains(file)) {
+						lost = true;
+						continue;
+					}
+					if (!written) {
+						writer.word(word);
+						written = true;
+					}
+					writer.file(file, source.getLines());
+					while (source.getLines() > 0) {
+						writer.line(source.nextLine());
+					}
+					if (withIndex && i == 0)
+						old = true;
+					else
+						ingested = true;
+				}
+				if (source.next())
+					queue.add(i);
+			}
+			if (written)
+				writer.endWord();
+			if (ingested)
+				counts[old ? 1 : 0]++;
+			if (lost)
+				counts[2]++;
+		}
+		return counts;
+	}
+
+	private static void close(List<DiskIndex.Records> sources) throws IOException {
+		for (DiskIndex.Records source : sources) {
+			source.close();
+		}
+	}
+
+	// A run on disk; a run of level n holds MAX_FAN_IN runs of level n - 1
+	private static final class Run {
+		final Path path;
+		final int level;
+
+		Run(Path path, int level) {
+			this.path = path;
+			this.level = level;
+		}
+	}
+}
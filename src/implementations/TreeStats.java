@@ -0,0 +1,137 @@
+package implementations;
+
+/**
+ * TreeStats describes the shape of a {@link BSTree}, as computed by
+ * {@link BSTree#getStats()}.
+ *
+ * Depths count the nodes on the path from the root, so the root has depth 1
+ * and the depth of a node is the number of key comparisons a search for it
+ * makes. The imbalance factor of a subtree is the height of its left subtree
+ * minus the height of its right subtree.
+ */
+public class TreeStats {
+	private final int size;
+	private final int[] depthHistogram;
+	private final long totalDepth;
+	private final int leaves;
+	private final int rootImbalance;
+	private final int maxImbalance;
+	private final int unbalancedNodes;
+
+	TreeStats(int size, int[] depthHistogram, long totalDepth, int leaves, int rootImbalance, int maxImbalance,
+			int unbalancedNodes) {
+		this.size = size;
+		this.depthHistogram = depthHistogram;
+		this.totalDepth = totalDepth;
+		this.leaves = leaves;
+		this.rootImbalance = rootImbalance;
+		this.maxImbalance = maxImbalance;
+		this.unbalancedNodes = unbalancedNodes;
+	}
+
+	/**
+	 * Returns the number of nodes.
+	 *
+	 * @return node count
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns how many nodes there are at each depth: element d is the number
+	 * of nodes at depth d (element 0 is always 0).
+	 *
+	 * @return depth histogram; a copy
+	 */
+	public int[] getDepthHistogram() {
+		return depthHistogram.clone();
+	}
+
+	/**
+	 * Returns the average number of comparisons a successful search makes.
+	 *
+	 * @return average node depth, 0 for an empty tree
+	 */
+	public double getAveragePathLength() {
+		return size == 0 ? 0 : (double) totalDepth / size;
+	}
+
+	/**
+	 * Returns the most comparisons a search can make, i.e. the height.
+	 *
+	 * @return maximum node depth, 0 for an empty tree
+	 */
+	public int getMaxPathLength() {
+		return depthHistogram.length - 1;
+	}
+
+	/**
+	 * Returns the number of nodes without children.
+	 *
+	 * @return leaf count
+	 */
+	public int getLeafCount() {
+		return leaves;
+	}
+
+	/**
+	 * Returns the imbalance factor of the whole tree.
+	 *
+	 * @return left height minus right height at the root
+	 */
+	public int getRootImbalance() {
+		return rootImbalance;
+	}
+
+	/**
+	 * Returns the largest imbalance factor of any subtree, ignoring its sign.
+	 *
+	 * @return largest absolute imbalance factor
+	 */
+	public int getMaxImbalance() {
+		return maxImbalance;
+	}
+
+	/**
+	 * Returns the number of subtrees whose imbalance factor is more than 1
+	 * either way, i.e. the nodes an AVL tree would rotate.
+	 *
+	 * @return unbalanced subtree count
+	 */
+	public int getUnbalancedNodes() {
+		return unbalancedNodes;
+	}
+
+	/**
+	 * Returns the average path length of a perfectly balanced tree of the
+	 * same size, about log2(size).
+	 *
+	 * @return average depth after {@link BSTree#rebalance()}
+	 */
+	public double getBalancedPathLength() {
+		if (size == 0)
+			return 0;
+		long total = 0;
+		int remaining = size;
+		for (int depth = 1; remaining > 0; depth++) {
+			int level = (int) Math.min(remaining, 1L << (depth - 1));
+			total += (long) level * depth;
+			remaining -= level;
+		}
+		return (double) total / size;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("size %d, height %d, average path %.2f (balanced %.2f), leaves %d, "
+				+ "imbalance at root %d, max imbalance %d, unbalanced subtrees %d", size, getMaxPathLength(),
+				getAveragePathLength(), getBalancedPathLength(), leaves, rootImbalance, maxImbalance, unbalancedNodes));
+		sb.append(System.lineSeparator()).append("depth histogram:");
+		for (int d = 1; d < depthHistogram.length; d++) {
+			sb.append(' ').append(d).append('=').append(depthHistogram[d]);
+		}
+		return sb.toString();
+	}
+}
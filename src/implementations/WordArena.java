@@ -0,0 +1,296 @@
+package implementations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * WordArena stores the letters of many words in a few large byte arrays, so
+ * a repository with millions of words holds a handful of big objects instead
+ * of a String and its array per word. A word is referred to by an int: the
+ * slab it is in and the offset within that slab.
+ *
+ * Words only contain the letters a-z (see {@link WordTokenizer}), so every
+ * character takes one byte and comparing the bytes orders words the same way
+ * as {@link String#compareTo}. Each word is stored as its length (a varint)
+ * followed by its bytes.
+ *
+ * The arena only grows: words are never removed, so the space of a word
+ * that leaves the repository is only reclaimed when the repository is loaded
+ * again. One thread may add words while others read words that were added
+ * before they were handed to them.
+ */
+public class WordArena {
+	// offset bits of a reference; the remaining high bits are the slab number.
+	// 256 KiB slabs stay below half of G1's smallest region (1 MiB), so they
+	// are not allocated as humongous objects, which would leave most of a
+	// second region unused per slab
+	private static final int SLAB_BITS = 18;
+	private static final int SLAB_SIZE = 1 << SLAB_BITS;
+	private static final int MAX_SLABS = 1 << (31 - SLAB_BITS);
+
+	// replaced by a larger copy when full, hence volatile for the readers
+	private volatile byte[][] slabs = new byte[4][];
+	private int slabCount;
+	private int position = SLAB_SIZE; // forces a new slab on the first add
+	private long used;
+
+	/**
+	 * Adds a word.
+	 *
+	 * @param word word made of the letters a-z
+	 * @return reference to pass to the other methods
+	 * @throws IllegalStateException if the arena is full (2 GiB)
+	 */
+	public int add(String word) {
+		int length = word.length();
+		int needed = length + 5;
+		if (position + needed > SLAB_SIZE) {
+			// a word longer than a slab gets a slab of its own
+			newSlab(Math.max(SLAB_SIZE, needed));
+		}
+		byte[] slab = slabs[slabCount - 1];
+		int ref = ((slabCount - 1) << SLAB_BITS) | position;
+		int p = position;
+		for (int v = length; ; v >>>= 7) {
+			if (v < 0x80) {
+				slab[p++] = (byte) v;
+				break;
+			}
+			slab[p++] = (byte) (v | 0x80);
+		}
+		for (int i = 0; i < length; i++) {
+			slab[p++] = (byte) word.charAt(i);
+		}
+		used += p - position;
+		position = p;
+		return ref;
+	}
+
+	/**
+	 * Returns a stored word as a String.
+	 *
+	 * @param ref reference returned by {@link #add}
+	 * @return the word
+	 */
+	public String get(int ref) {
+		byte[] slab = slab(ref);
+		int p = ref & (SLAB_SIZE - 1);
+		int length = length(slab, p);
+		p += prefix(length);
+		return new String(slab, p, length, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Compares a stored word with a String, in the order of
+	 * {@link String#compareTo}.
+	 *
+	 * @param ref reference of the stored word
+	 * @param word word to compare with
+	 * @return negative, zero or positive as the stored word is less than, equal to or greater than {@code word}
+	 */
+	public int compare(int ref, String word) {
+		byte[] slab = slab(ref);
+		int p = ref & (SLAB_SIZE - 1);
+		int length = length(slab, p);
+		p += prefix(length);
+		int n = Math.min(length, word.length());
+		for (int i = 0; i < n; i++) {
+			int c = slab[p + i] - word.charAt(i);
+			if (c != 0)
+				return c;
+		}
+		return length - word.length();
+	}
+
+	/**
+	 * Compares a stored word with one stored in this or another arena, in the
+	 * order of {@link String#compareTo}.
+	 *
+	 * @param ref reference of the stored word
+	 * @param other arena holding the other word
+	 * @param otherRef reference of the other word
+	 * @return negative, zero or positive as the stored word is less than, equal to or greater than the other
+	 */
+	public int compare(int ref, WordArena other, int otherRef) {
+		byte[] a = slab(ref);
+		byte[] b = other.slab(otherRef);
+		int p = ref & (SLAB_SIZE - 1);
+		int q = otherRef & (SLAB_SIZE - 1);
+		int lengthA = length(a, p);
+		p += prefix(lengthA);
+		int lengthB = length(b, q);
+		q += prefix(lengthB);
+		int n = Math.min(lengthA, lengthB);
+		for (int i = 0; i < n; i++) {
+			int c = a[p + i] - b[q + i];
+			if (c != 0)
+				return c;
+		}
+		return lengthA - lengthB;
+	}
+
+	/**
+	 * Returns the hash code the stored word would have as a String.
+	 *
+	 * @param ref reference of the stored word
+	 * @return same value as {@code get(ref).hashCode()}
+	 */
+	public int hash(int ref) {
+		byte[] slab = slab(ref);
+		int p = ref & (SLAB_SIZE - 1);
+		int length = length(slab, p);
+		p += prefix(length);
+		int h = 0;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + slab[p + i];
+		}
+		return h;
+	}
+
+	/**
+	 * Returns the length of a stored word.
+	 *
+	 * @param ref reference of the stored word
+	 * @return number of letters
+	 */
+	public int length(int ref) {
+		return length(slab(ref), ref & (SLAB_SIZE - 1));
+	}
+
+	/**
+	 * Returns one letter of a stored word.
+	 *
+	 * @param ref reference of the stored word
+	 * @param index position of the letter, from 0
+	 * @return the letter
+	 */
+	public char charAt(int ref, int index) {
+		byte[] slab = slab(ref);
+		int p = ref & (SLAB_SIZE - 1);
+		int length = length(slab, p);
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+		return (char) slab[p + prefix(length) + index];
+	}
+
+	/**
+	 * Returns the number of bytes taken by the words added so far, including
+	 * their length prefixes.
+	 *
+	 * @return bytes used
+	 */
+	public long getUsedBytes() {
+		return used;
+	}
+
+	/**
+	 * Returns the number of byte arrays the words are stored in.
+	 *
+	 * @return slab count
+	 */
+	public int getSlabCount() {
+		return slabCount;
+	}
+
+	/**
+	 * A word stored in an arena, for use where a String of it would do as a
+	 * CharSequence: e.g. as the key of the word in the sets and maps a
+	 * repository keeps next to its tree, which then hold no String per word.
+	 * Words are equal, ordered and hashed by their letters, like Strings, so
+	 * two references to the same letters are the same key.
+	 */
+	public static final class Word implements CharSequence, Comparable<Word> {
+		private final WordArena arena;
+		private final int ref;
+
+		/**
+		 * @param arena arena holding the word
+		 * @param ref reference returned by {@link WordArena#add}
+		 */
+		public Word(WordArena arena, int ref) {
+			this.arena = arena;
+			this.ref = ref;
+		}
+
+		@Override
+		public int length() {
+			return arena.length(ref);
+		}
+
+		@Override
+		public char charAt(int index) {
+			return arena.charAt(ref, index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().subSequence(start, end);
+		}
+
+		/**
+		 * Compares this word with a String, in the order of
+		 * {@link String#compareTo}.
+		 *
+		 * @param word word to compare with
+		 * @return negative, zero or positive as this word is less than, equal to or greater than {@code word}
+		 */
+		public int compareTo(String word) {
+			return arena.compare(ref, word);
+		}
+
+		@Override
+		public int compareTo(Word other) {
+			return arena.compare(ref, other.arena, other.ref);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Word && compareTo((Word) o) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return arena.hash(ref);
+		}
+
+		@Override
+		public String toString() {
+			return arena.get(ref);
+		}
+	}
+
+	// Decodes the varint length prefix starting at p
+	private static int length(byte[] slab, int p) {
+		int length = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = slab[p++];
+			length |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return length;
+		}
+	}
+
+	// Returns the number of bytes of the length prefix of a word
+	private static int prefix(int length) {
+		int bytes = 1;
+		while ((length >>>= 7) != 0)
+			bytes++;
+		return bytes;
+	}
+
+	private byte[] slab(int ref) {
+		return slabs[ref >>> SLAB_BITS];
+	}
+
+	private void newSlab(int size) {
+		if (slabCount == MAX_SLABS)
+			throw new IllegalStateException("Word arena is full");
+		byte[][] current = slabs;
+		if (slabCount == current.length)
+			current = Arrays.copyOf(current, Math.min(current.length * 2, MAX_SLABS));
+		current[slabCount] = new byte[size];
+		slabCount++;
+		slabs = current;
+		position = 0;
+	}
+}
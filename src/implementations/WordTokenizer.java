@@ -0,0 +1,271 @@
+package implementations;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * WordTokenizer is a single-pass character scanner that splits text into the
+ * words tracked by {@link WordTracker}.
+ *
+ * The rules match the original regex based tokenizer exactly: only the ASCII
+ * letters A-Z/a-z are kept (lower-cased), a space ends the current word and
+ * every other character is dropped. Because dropped characters do not end a
+ * word, "don't" becomes "dont" and words separated only by tabs or digits are
+ * joined together. Line terminators ("\n", "\r" or "\r\n") end the current
+ * word and advance the line counter.
+ *
+ * Letters are lower-cased into a reusable buffer and handed to the
+ * {@link WordSink} as a slice, so scanning itself allocates nothing.
+ */
+public class WordTokenizer {
+
+	/**
+	 * Receives each word found by the tokenizer. The buffer is reused for the
+	 * next word, so implementations must copy whatever they want to keep.
+	 */
+	public interface WordSink {
+		/**
+		 * Called once for every word.
+		 *
+		 * @param buf buffer holding the lower-cased letters of the word
+		 * @param len number of valid characters in {@code buf}
+		 * @param lineNumber 1-based line number the word was found on
+		 */
+		void word(char[] buf, int len, int lineNumber);
+	}
+
+	private final WordSink sink;
+	private char[] buf = new char[32];
+	private int len;
+	private int lineNumber;
+	private boolean lastWasCR;
+	// bytes consumed by scan/read so far, and how many of them precede the current line
+	private long scanned;
+	private long lineStart;
+	private CharsetDecoder decoder;
+	private CharBuffer decoded;
+
+	/**
+	 * Creates a tokenizer that starts counting at line 1.
+	 *
+	 * @param sink receiver for the words found
+	 */
+	public WordTokenizer(WordSink sink) {
+		this(sink, 1);
+	}
+
+	/**
+	 * Creates a tokenizer whose first character is on the given line.
+	 *
+	 * @param sink receiver for the words found
+	 * @param firstLine line number of the first character fed in
+	 */
+	public WordTokenizer(WordSink sink, int firstLine) {
+		this.sink = sink;
+		this.lineNumber = firstLine;
+	}
+
+	/**
+	 * Feeds the next character of the input.
+	 *
+	 * @param c character to scan
+	 */
+	public void accept(char c) {
+		if (c >= 'a' && c <= 'z') {
+			append(c);
+		} else if (c >= 'A' && c <= 'Z') {
+			append((char) (c + ('a' - 'A')));
+		} else if (c == ' ') {
+			flush();
+		} else if (c == '\n') {
+			flush();
+			if (!lastWasCR)
+				lineNumber++;
+			lastWasCR = false;
+			return;
+		} else if (c == '\r') {
+			flush();
+			lineNumber++;
+			lastWasCR = true;
+			return;
+		}
+		lastWasCR = false;
+	}
+
+	/**
+	 * Scans one line of text that has already had its terminator removed (as
+	 * returned by {@code BufferedReader.readLine}). The words are reported on
+	 * the given line number.
+	 *
+	 * @param line line content without terminator
+	 * @param number line number to report the words on
+	 */
+	public void line(String line, int number) {
+		lineNumber = number;
+		lastWasCR = false;
+		for (int i = 0, n = line.length(); i < n; i++)
+			accept(line.charAt(i));
+		flush();
+	}
+
+	/**
+	 * Scans a complete block of UTF-8 bytes. The block must end on a character
+	 * boundary. Malformed input is reported the same way
+	 * {@code Files.newBufferedReader} reports it.
+	 *
+	 * @param bytes UTF-8 encoded input; consumed by this call
+	 * @throws CharacterCodingException if the bytes are not valid UTF-8
+	 */
+	public void scan(ByteBuffer bytes) throws CharacterCodingException {
+		scan(bytes, true);
+	}
+
+	/**
+	 * Reads a UTF-8 channel to its end and scans its contents.
+	 *
+	 * @param channel channel to read from; it is not closed
+	 * @throws IOException if reading fails or the input is not valid UTF-8
+	 */
+	public void read(ReadableByteChannel channel) throws IOException {
+		read(channel, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Reads at most a given number of bytes of a UTF-8 channel and scans
+	 * them, one fixed-size block at a time. The bytes must end on a
+	 * character boundary.
+	 *
+	 * @param channel channel to read from; it is not closed
+	 * @param length number of bytes to read, unless the channel ends first
+	 * @throws IOException if reading fails or the input is not valid UTF-8
+	 */
+	public void read(ReadableByteChannel channel, long length) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(64 * 1024);
+		long remaining = length;
+		boolean eof = false;
+		while (!eof) {
+			if (bytes.remaining() > remaining)
+				bytes.limit(bytes.position() + (int) remaining);
+			int n = channel.read(bytes);
+			if (n > 0)
+				remaining -= n;
+			eof = n < 0 || remaining == 0;
+			bytes.flip();
+			scan(bytes, eof);
+			bytes.compact();
+		}
+	}
+
+	/**
+	 * Scans raw bytes. ASCII bytes are fed straight to {@link #accept(char)};
+	 * only a run of non-ASCII bytes goes through the UTF-8 decoder. Those
+	 * characters are never letters or spaces, so the decoder is only there to
+	 * reject malformed input exactly like a decoding reader would.
+	 *
+	 * When {@code endOfInput} is false an incomplete character at the end of
+	 * the buffer is left unconsumed for the next call.
+	 */
+	private void scan(ByteBuffer bytes, boolean endOfInput) throws CharacterCodingException {
+		int limit = bytes.limit();
+		int start = bytes.position();
+		int i = start;
+		while (i < limit) {
+			byte b = bytes.get(i);
+			if (b >= 0) {
+				accept((char) b);
+				i++;
+				if (b == '\n' || b == '\r')
+					lineStart = scanned + (i - start);
+				continue;
+			}
+			int stop = i + 1;
+			while (stop < limit && bytes.get(stop) < 0)
+				stop++;
+			ByteBuffer run = bytes.duplicate();
+			run.limit(stop).position(i);
+			validate(run, endOfInput || stop < limit);
+			i = run.position();
+			if (run.hasRemaining())
+				break; // incomplete character, wait for more input
+		}
+		bytes.position(i);
+		scanned += i - start;
+	}
+
+	// Runs a block of non-ASCII bytes through the decoder, throwing if malformed
+	private void validate(ByteBuffer run, boolean complete) throws CharacterCodingException {
+		if (decoder == null) {
+			decoder = StandardCharsets.UTF_8.newDecoder();
+			decoded = CharBuffer.allocate(1024);
+		}
+		decoder.reset();
+		CoderResult result;
+		do {
+			decoded.clear();
+			result = decoder.decode(run, decoded, complete);
+			if (result.isError())
+				result.throwException();
+		} while (result.isOverflow());
+		if (complete) {
+			decoded.clear();
+			decoder.flush(decoded);
+		}
+	}
+
+	/**
+	 * Ends the input, reporting any word still being collected.
+	 */
+	public void finish() {
+		flush();
+	}
+
+	/**
+	 * Returns the line number the next character would be reported on.
+	 *
+	 * @return current line number
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Returns the number of bytes fed in through {@link #scan} or
+	 * {@link #read} and consumed so far.
+	 *
+	 * @return bytes scanned
+	 */
+	public long getScanned() {
+		return scanned;
+	}
+
+	/**
+	 * Returns how many of the bytes scanned so far come before the start of
+	 * the current line, i.e. the offset just after the last line terminator
+	 * (0 if there was none). Only bytes fed in through {@link #scan} or
+	 * {@link #read} are counted.
+	 *
+	 * @return byte offset of the current line, relative to the first byte scanned
+	 */
+	public long getLineStart() {
+		return lineStart;
+	}
+
+	private void append(char c) {
+		if (len == buf.length)
+			buf = java.util.Arrays.copyOf(buf, len * 2);
+		buf[len++] = c;
+	}
+
+	private void flush() {
+		if (len > 0) {
+			sink.word(buf, len, lineNumber);
+			len = 0;
+		}
+	}
+}
@@ -1,176 +1,1887 @@
 package implementations;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
 import java.nio.file.*;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.stream.*;
 
 /**
  * WordTracker.java for Assignment3.
  *
- *  to run the program: java -jar WordTracker.jar <input.txt> -pf|-pl|-po [-f<output.txt>]
+ *  to run the program: java -jar WordTracker.jar <input>... -pf|-pl|-po|-pc [-f<output.txt>] ...
+ *
+ *  Each input may be a file, a directory (all regular files below it) or a
+ *  glob pattern such as res/*.txt. Postings are recorded under the file's
+ *  path relative to the directory given (or the glob's leading directory),
+ *  e.g. a/notes.txt, and under its name for a file given on its own; two
+ *  inputs that would get the same name are rejected. With -mmap each file
+ *  is memory-mapped
+ *  and split into chunks that are indexed in parallel, which is the faster
+ *  choice for a few very large files.
+ *
+ *  Files that have not changed since they were last ingested are skipped,
+ *  and a changed file replaces its old postings. With -tail, files are
+ *  treated as logs that only grow: only the bytes appended since the last
+ *  ingest are read and the line numbers carry on from there.
+ *
+ *  Several formats can be requested at once, each followed by its own -f
+ *  output file, e.g. -pf -fwords.txt -pl -flines.txt -po. At most one of
+ *  them may go to the console. All of them are rendered in a single pass
+ *  over the tree.
+ *
+ *  -pc lists the -top <k> (default 100) most frequent words with their
+ *  number of occurrences, most frequent first.
+ *
+ *  Next to every report written to a file an index (<output>.idx) records
+ *  where each word's entry is. When the same report is requested again
+ *  after an ingest, only the entries of the words that ingest touched are
+ *  re-rendered; the rest is copied from the previous report.
+ *
+ *  java -jar WordTracker.jar -q <words> looks words up without ingesting
+ *  or rendering a report. Words are separated by commas and a term made of
+ *  words joined with + (e.g. -q hello,hello+kitty) lists only the lines on
+ *  which all of them occur. The repository file starts with a Bloom filter
+ *  of its words, so a query for words that are not there is answered
+ *  without loading the rest of it.
+ *
+ *  -words <file> lists the words of one input file with the lines they
+ *  are on, and -remove <file> takes all of a file's postings out of the
+ *  repository. Both look the file's words up in a per-file index instead
+ *  of visiting the whole tree.
+ *
+ *  With -arena the letters of all words are kept in a few large byte
+ *  arrays instead of a String per word, which eases garbage collection of
+ *  large repositories; it is mostly useful for the long-running daemon
+ *  (-server -arena). The repository file is the same either way.
+ *
+ *  -stats prints how long each phase of the run took (loading, indexing,
+ *  reporting, saving), the tokens read per second, the key comparisons made
+ *  while looking them up and how many of the words were new.
+ *
+ *  -maxwords <n> caps the number of distinct words: every time an ingest
+ *  has merged a file (or a chunk of a mapped file) the least frequent
+ *  words, by total count, are evicted until n are left, so the heap stays
+ *  bounded during the ingest while the frequent words stay fully indexed.
+ *  With -cold <file> the evicted words are appended to that file (see
+ *  {@link ColdStore}) instead of being dropped, and -q -cold <file> also
+ *  answers from it. Given to -remove as well, -cold <file> leaves the
+ *  archived postings of removed and re-ingested files out of the answers.
+ *
+ *  -index <file> keeps the repository in a file sorted by word (see
+ *  {@link DiskIndex}) instead of repository.ser, for repositories that do
+ *  not fit in memory. Ingesting into it takes a bounded amount of memory,
+ *  -spill <megabytes> (default 64): postings are written to temporary
+ *  files as sorted runs whenever they reach that much, and the runs are
+ *  merged into the index at the end (see {@link SpillingIngest}). Reports,
+ *  -q, -words and -remove read the index in place instead of loading it.
+ *
+ *  After every ingest the shape of the tree is checked. When the average
+ *  search path is longer than -maxpath <multiple> (default 3) times
+ *  log2 of the number of words, a warning is printed; with -rebalance the
+ *  tree is rebuilt into a balanced shape instead.
  */
 public class WordTracker implements Serializable {
     private static final long serialVersionUID = 1L;
     private static final String REPO_FILE = "repository.ser";
+    // starts a repository file that has a Bloom filter header; files without
+    // one start with the object stream's magic (0xACED) instead
+    private static final int BLOOM_MAGIC = 0x57544246; // "WTBF"
+    // average search path allowed, as a multiple of log2(size), before warning
+    private static final double DEFAULT_MAX_PATH = 3.0;
+    // trees smaller than this are not checked; their log2 is too small to judge by
+    private static final int MIN_CHECKED_SIZE = 64;
+    // number of words listed by -pc unless -top says otherwise
+    private static final int DEFAULT_TOP = 100;
+    // heap the postings of an ingest into an -index may take unless -spill says otherwise
+    private static final long DEFAULT_SPILL_BUDGET = 64L << 20;
 
     public static class WordInfo implements Comparable<WordInfo>, Serializable {
         private static final long serialVersionUID = 1L;
+        // the serialized form stays the word as a String, whichever way it is held
+        private static final ObjectStreamField[] serialPersistentFields = {
+                new ObjectStreamField("word", String.class),
+                new ObjectStreamField("locations", Map.class),
+                new ObjectStreamField("count", int.class) };
+        // letters packed into a prefix: 12 of 5 bits each fill 60 bits of a long
+        private static final int PREFIX_LETTERS = 12;
 
+        // null when the word is held in an arena
         private final String word;
         // file -> line numbers where this word appears
-        private final Map<String, List<Integer>> locations = new TreeMap<>();
+        private final Map<String, List<Integer>> locations;
+        // total number of line numbers in locations; 0 in repositories saved
+        // before it was serialized, which recount it on load
+        private int count;
+        // where the word is held instead of in a String, see storeIn
+        private final transient WordArena.Word stored;
+        // the first letters of the word packed into a long, see prefix(CharSequence)
+        private transient long prefix;
 
         public WordInfo(String word) {
+            this(word, null, new TreeMap<>(), 0);
+        }
+
+        private WordInfo(String word, WordArena.Word stored, Map<String, List<Integer>> locations, int count) {
             this.word = word;
+            this.stored = stored;
+            this.locations = locations;
+            this.count = count;
+            this.prefix = word != null ? prefix(word) : -1;
+        }
+
+        /**
+         * Returns a WordInfo without occurrences to look a word up with,
+         * given the word as returned by {@link #getKey()}.
+         *
+         * @param key the word, as a String or held in an arena
+         * @return probe for the word
+         */
+        public static WordInfo probe(CharSequence key) {
+            if (!(key instanceof WordArena.Word))
+                return new WordInfo(key.toString());
+            WordInfo probe = new WordInfo(null, (WordArena.Word) key, new TreeMap<>(), 0);
+            probe.prefix = prefix(key);
+            return probe;
         }
 
         public String getWord() {
-            return word;
+            return word != null ? word : stored.toString();
+        }
+
+        /**
+         * Returns the word the way it is held: its String, or the
+         * {@link WordArena.Word} of a word held in an arena. Unlike
+         * {@link #getWord()} this creates nothing, so the repository keys its
+         * file and frequency indexes with it. Copies of a WordInfo return the
+         * same key.
+         *
+         * @return the word as a CharSequence
+         */
+        public CharSequence getKey() {
+            return word != null ? word : stored;
+        }
+
+        /**
+         * Returns a WordInfo for the same word and occurrences whose word is
+         * held in an arena instead of a String of its own. The occurrences are
+         * shared, so this WordInfo must not be used afterwards.
+         *
+         * @param arena arena to add the word to
+         * @return word info backed by the arena
+         */
+        public WordInfo storeIn(WordArena arena) {
+            WordInfo info = new WordInfo(null, new WordArena.Word(arena, arena.add(word)), locations, count);
+            info.prefix = prefix;
+            return info;
+        }
+
+        /**
+         * Packs the first 12 letters of a word into a long, 5 bits per letter
+         * (a = 1 ... z = 26) with the first letter in the highest bits and 0
+         * after the end of a shorter word. Two words whose prefixes differ
+         * compare the same way as their prefixes, so most comparisons in the
+         * tree are settled by comparing two longs held in the WordInfo
+         * objects, without reaching the characters of the words. Only words
+         * that share their first 12 letters have to be compared in full.
+         *
+         * @param word word to pack
+         * @return packed prefix, or -1 if the word has a character other than a-z
+         */
+        static long prefix(CharSequence word) {
+            long packed = 0;
+            int n = Math.min(word.length(), PREFIX_LETTERS);
+            for (int i = 0; i < n; i++) {
+                int c = word.charAt(i) - ('a' - 1);
+                if (c < 1 || c > 26)
+                    return -1;
+                packed |= (long) c << (5 * (PREFIX_LETTERS - 1 - i));
+            }
+            return packed;
+        }
+
+        /**
+         * Same as {@link #prefix(CharSequence)} for a word held in a char buffer.
+         *
+         * @param buf buffer holding the word
+         * @param len length of the word
+         * @return packed prefix, or -1 if the word has a character other than a-z
+         */
+        static long prefix(char[] buf, int len) {
+            long packed = 0;
+            int n = Math.min(len, PREFIX_LETTERS);
+            for (int i = 0; i < n; i++) {
+                int c = buf[i] - ('a' - 1);
+                if (c < 1 || c > 26)
+                    return -1;
+                packed |= (long) c << (5 * (PREFIX_LETTERS - 1 - i));
+            }
+            return packed;
+        }
+
+        /**
+         * Returns the packed prefix of this word.
+         *
+         * @return value of {@link #prefix(CharSequence)} for this word
+         */
+        long getPrefix() {
+            return prefix;
         }
 
         public void addOccurrence(String fileName, int lineNumber) {
             List<Integer> lines = locations.computeIfAbsent(fileName, k -> new ArrayList<>());
             lines.add(lineNumber);
+            count++;
+        }
+
+        /**
+         * Returns the total number of occurrences over all files, kept up to
+         * date by the methods of this class.
+         *
+         * @return occurrence count
+         */
+        public int getCount() {
+            return count;
         }
 
+        /**
+         * Returns a copy of this WordInfo whose occurrence lists can be
+         * changed without affecting this one.
+         *
+         * @return deep copy of this word info
+         */
+        public WordInfo copy() {
+            Map<String, List<Integer>> lines = new TreeMap<>();
+            for (Map.Entry<String, List<Integer>> entry : locations.entrySet()) {
+                lines.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+            WordInfo copy = new WordInfo(word, stored, lines, count);
+            copy.prefix = prefix;
+            return copy;
+        }
+
+        /**
+         * Appends all occurrences recorded in another WordInfo for the same
+         * word. Line numbers are appended after the existing ones for each file.
+         *
+         * @param other word info whose occurrences are merged into this one
+         */
+        public void addAll(WordInfo other) {
+            for (Map.Entry<String, List<Integer>> entry : other.locations.entrySet()) {
+                locations.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).addAll(entry.getValue());
+                count += entry.getValue().size();
+            }
+        }
+
+        /**
+         * Removes all occurrences in one file.
+         *
+         * @param fileName file whose occurrences are removed
+         * @return true if the word occurred in the file
+         */
+        public boolean removeFile(String fileName) {
+            List<Integer> lines = locations.remove(fileName);
+            if (lines == null)
+                return false;
+            count -= lines.size();
+            return true;
+        }
+
+        /**
+         * Removes the occurrences in one file from a given line on. Lines are
+         * recorded in file order, so these are the last ones of the file.
+         *
+         * @param fileName file whose last occurrences are removed
+         * @param fromLine first line whose occurrences are removed
+         */
+        public void removeLinesFrom(String fileName, int fromLine) {
+            List<Integer> lines = locations.get(fileName);
+            if (lines == null)
+                return;
+            int keep = lines.size();
+            while (keep > 0 && lines.get(keep - 1) >= fromLine)
+                keep--;
+            count -= lines.size() - keep;
+            lines.subList(keep, lines.size()).clear();
+            if (lines.isEmpty())
+                locations.remove(fileName);
+        }
+
+        /**
+         * Returns the occurrences by file. The map is live; changes made to it
+         * directly are not reflected in {@link #getCount()}.
+         *
+         * @return file name to line numbers, in file name order
+         */
         public Map<String, List<Integer>> getLocations() {
             return locations;
         }
 
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            ObjectOutputStream.PutField fields = out.putFields();
+            fields.put("word", getWord());
+            fields.put("locations", locations);
+            fields.put("count", count);
+            out.writeFields();
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            if (count == 0) {
+                for (List<Integer> lines : locations.values()) {
+                    count += lines.size();
+                }
+            }
+            prefix = prefix(word);
+        }
+
         @Override
         public int compareTo(WordInfo other) {
-            return this.word.compareTo(other.word);
+            if (prefix != other.prefix && prefix >= 0 && other.prefix >= 0)
+                return prefix < other.prefix ? -1 : 1;
+            if (stored == null)
+                return other.stored == null ? word.compareTo(other.word) : -other.stored.compareTo(word);
+            return other.stored == null ? stored.compareTo(other.word) : stored.compareTo(other.stored);
         }
 
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
             if (!(o instanceof WordInfo)) return false;
-            WordInfo that = (WordInfo) o;
-            return Objects.equals(word, that.word);
+            return compareTo((WordInfo) o) == 0;
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(word);
+            return 31 + (stored == null ? word.hashCode() : stored.hashCode());
         }
 
         @Override
         public String toString() {
-            return word;
+            return getWord();
         }
     }
 
     public static void main(String[] args) {
-        if (args.length < 2) {
-            System.err.println("Usage: java -jar WordTracker.jar <input.txt> -pf|-pl|-po [-f<output.txt>]");
-            return;
+        List<String> arguments = Arrays.asList(args);
+        if (arguments.contains("-server")) {
+            WordTrackerServer.serve(args);
+        } else if (arguments.contains("-remote")) {
+            WordTrackerServer.remote(args);
+        } else {
+            run(args, null, System.out, System.err);
         }
+    }
 
-        String inputPath = args[0];
-        String option = args[1];
-        String outputPath = null;
+    /**
+     * Runs one command line: an ingest followed by the requested reports, or
+     * a query. When a resident repository is given (daemon mode) it is used
+     * instead of loading one from disk and it is not saved afterwards.
+     *
+     * @param args command line arguments as documented on this class
+     * @param resident repository kept in memory by the caller, or null to load and save {@code repository.ser}
+     * @param out where console output goes
+     * @param err where usage and error messages go
+     * @return true if the command completed, false on a usage or I/O error
+     */
+    static boolean run(String[] args, Repository resident, PrintStream out, PrintStream err) {
+        List<String> inputs = new ArrayList<>();
+        // requested formats and their output files (null for the console)
+        List<String> options = new ArrayList<>();
+        List<String> outputPaths = new ArrayList<>();
+        String pendingOutput = null;
+        String query = null;
+        String wordsFile = null;
+        String removedFile = null;
+        boolean mapped = false;
+        boolean tail = false;
+        boolean printStats = false;
+        boolean rebalance = false;
+        boolean arena = false;
+        int maxWords = 0;
+        String coldPath = null;
+        String indexPath = null;
+        long spillBudget = 0;
+        double maxPath = DEFAULT_MAX_PATH;
+        int top = DEFAULT_TOP;
+        IngestStats stats = new IngestStats(); // always counted, only printed with -stats
 
-        if (args.length >= 3 && args[2].startsWith("-f")) {
-            outputPath = args[2].substring(2); // -fresults.txt
-        } else if (args.length >= 4 && args[2].equals("-f")) {
-            outputPath = args[3];
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            String outputPath = null;
+            if (!arg.startsWith("-")) {
+                inputs.add(arg);
+                continue;
+            } else if (arg.equals("-f")) {
+                if (i + 1 < args.length)
+                    outputPath = args[++i];
+            } else if (arg.startsWith("-f")) {
+                outputPath = arg.substring(2); // -fresults.txt
+            } else if (arg.equals("-mmap")) {
+                mapped = true;
+                continue;
+            } else if (arg.equals("-tail")) {
+                tail = true;
+                continue;
+            } else if (arg.equals("-stats")) {
+                printStats = true;
+                continue;
+            } else if (arg.equals("-rebalance")) {
+                rebalance = true;
+                continue;
+            } else if (arg.equals("-arena")) {
+                arena = true;
+                continue;
+            } else if (arg.equals("-top") && i + 1 < args.length) {
+                try {
+                    top = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    top = -1;
+                }
+                if (top < 0) {
+                    err.println("Invalid -top count: " + args[i]);
+                    return false;
+                }
+                continue;
+            } else if (arg.equals("-maxwords") && i + 1 < args.length) {
+                try {
+                    maxWords = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    maxWords = -1;
+                }
+                if (maxWords <= 0) {
+                    err.println("Invalid -maxwords count: " + args[i]);
+                    return false;
+                }
+                continue;
+            } else if (arg.equals("-cold") && i + 1 < args.length) {
+                coldPath = args[++i];
+                continue;
+            } else if (arg.equals("-index") && i + 1 < args.length) {
+                indexPath = args[++i];
+                continue;
+            } else if (arg.equals("-spill") && i + 1 < args.length) {
+                try {
+                    spillBudget = Long.parseLong(args[++i]) << 20;
+                } catch (NumberFormatException e) {
+                    spillBudget = -1;
+                }
+                if (spillBudget <= 0) {
+                    err.println("Invalid -spill budget (megabytes): " + args[i]);
+                    return false;
+                }
+                continue;
+            } else if (arg.equals("-maxpath") && i + 1 < args.length) {
+                try {
+                    maxPath = Double.parseDouble(args[++i]);
+                } catch (NumberFormatException e) {
+                    err.println("Invalid -maxpath multiple: " + args[i]);
+                    return false;
+                }
+                continue;
+            } else if (arg.equals("-words") && i + 1 < args.length) {
+                wordsFile = args[++i];
+                continue;
+            } else if (arg.equals("-remove") && i + 1 < args.length) {
+                removedFile = args[++i];
+                continue;
+            } else if (arg.equals("-q")) {
+                if (i + 1 < args.length)
+                    query = args[++i];
+                continue;
+            } else if (arg.startsWith("-q")) {
+                query = arg.substring(2);
+                continue;
+            } else {
+                options.add(arg);
+                outputPaths.add(pendingOutput);
+                pendingOutput = null;
+                continue;
+            }
+            // -f applies to the format option before it
+            if (!options.isEmpty() && outputPaths.get(options.size() - 1) == null) {
+                outputPaths.set(options.size() - 1, outputPath);
+            } else {
+                pendingOutput = outputPath;
+            }
         }
 
+        if (indexPath != null || spillBudget > 0) {
+            if (indexPath == null) {
+                err.println("-spill needs -index <file>.");
+                return false;
+            }
+            if (resident != null || mapped || tail || arena || rebalance || maxWords > 0 || coldPath != null) {
+                err.println("-index cannot be combined with -server, -mmap, -tail, -arena, -rebalance, -maxwords"
+                        + " or -cold.");
+                return false;
+            }
+            return runIndexed(Paths.get(indexPath), spillBudget > 0 ? spillBudget : DEFAULT_SPILL_BUDGET, inputs,
+                    options, outputPaths, query, wordsFile, removedFile, top, printStats, stats, out, err);
+        }
+
+        if (query != null && inputs.isEmpty() && options.isEmpty()) {
+            try {
+                long start = System.nanoTime();
+                Repository repository = resident;
+                if (repository == null) {
+                    // when the header's Bloom filter rules out every term, all
+                    // answers are "not found" and the repository is not loaded;
+                    // evicted words may still be in the cold store though
+                    BloomFilter bloom = coldPath == null ? loadBloomFilter(new File(REPO_FILE)) : null;
+                    repository = bloom != null && rulesOut(bloom, query) ? new Repository() : loadRepository();
+                }
+                stats.endPhase("loadRepository", start);
+                start = System.nanoTime();
+                runQuery(repository, coldPath == null ? null : new ColdStore(Paths.get(coldPath)), query, out);
+                stats.endPhase("query", start);
+                if (printStats)
+                    stats.print(err);
+                return true;
+            } catch (IOException | ClassNotFoundException e) {
+                e.printStackTrace(err);
+                return false;
+            }
+        }
+
+        if ((wordsFile != null || removedFile != null) && query == null && inputs.isEmpty() && options.isEmpty()) {
+            try {
+                long start = System.nanoTime();
+                Repository repository = resident != null ? resident : loadRepository();
+                stats.endPhase("loadRepository", start);
+                if (wordsFile != null) {
+                    start = System.nanoTime();
+                    listWords(repository, fileName(repository, wordsFile), out);
+                    stats.endPhase("query", start);
+                }
+                if (removedFile != null) {
+                    removedFile = fileName(repository, removedFile);
+                    start = System.nanoTime();
+                    int removed = repository.removeFile(removedFile);
+                    if (coldPath != null)
+                        new ColdStore(Paths.get(coldPath)).drop(removedFile, 0);
+                    stats.endPhase("removeFile", start);
+                    repository.nextGeneration();
+                    if (resident == null) {
+                        start = System.nanoTime();
+                        saveRepository(repository);
+                        stats.endPhase("saveRepository", start);
+                    }
+                    out.println("Removed " + removedFile + " (" + removed + " words)");
+                }
+                if (printStats)
+                    stats.print(err);
+                return true;
+            } catch (IOException | ClassNotFoundException e) {
+                e.printStackTrace(err);
+                return false;
+            }
+        }
+
+        if (inputs.isEmpty() || options.isEmpty() || query != null || wordsFile != null || removedFile != null) {
+            printUsage(err);
+            return false;
+        }
+        if (coldPath != null && maxWords == 0) {
+            err.println("-cold needs -maxwords when ingesting.");
+            return false;
+        }
         try {
-            BSTree<WordInfo> tree = loadRepository();
-            processInputFile(tree, inputPath);
-            saveRepository(tree);
+            List<InputFile> files = resolveInputs(inputs);
+            if (!checkNames(files, err))
+                return false;
+            long start = System.nanoTime();
+            Repository repository = resident != null ? resident : loadRepository();
+            if (arena && resident == null)
+                repository.useArena();
+            stats.endPhase("loadRepository", start);
+            repository.getDirtyWords().clear();
+            long loadedGeneration = repository.getGeneration();
+            VocabularyCap cap = new VocabularyCap(maxWords, coldPath == null ? null : new ColdStore(Paths.get(coldPath)),
+                    stats);
+            start = System.nanoTime();
+            processInputFiles(repository, files, mapped, tail, cap, stats);
+            stats.endPhase("processInputFile", start);
+            cap.evict(repository); // when the cap was lowered but no file changed
+            checkShape(repository.getTree(), maxPath, rebalance, stats, err);
+            repository.nextGeneration();
+            if (resident == null) {
+                start = System.nanoTime();
+                saveRepository(repository);
+                stats.endPhase("saveRepository", start);
+            }
+
+            if (!checkReportOptions(options, outputPaths, err))
+                return false;
 
-            StringBuilder finalOutput = new StringBuilder();
+            start = System.nanoTime();
+            writeReports(repository, loadedGeneration, options, outputPaths, top, out);
+            stats.endPhase("buildReport", start);
+            if (printStats)
+                stats.print(err);
+            return true;
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace(err);
+            return false;
+        }
+    }
+
+    /**
+     * Runs one command line against an on-disk index (-index) instead of the
+     * repository file: an ingest in bounded memory followed by the requested
+     * reports, a query, or -words and -remove. The index is read in place,
+     * see {@link DiskIndex}; reports are always rendered in full from it.
+     *
+     * @param indexPath index file; created by the first ingest
+     * @param budget bytes of heap the postings of an ingest may take before they are spilled
+     * @param inputs file, directory or glob arguments to ingest
+     * @param options report formats requested
+     * @param outputPaths output file for each format, null or empty for the console
+     * @param query query to answer, or null
+     * @param wordsFile file whose words to list, or null
+     * @param removedFile file to remove, or null
+     * @param top number of words listed by -pc
+     * @param printStats true to print the statistics
+     * @param stats statistics to count into
+     * @param out where console output goes
+     * @param err where usage and error messages go
+     * @return true if the command completed, false on a usage or I/O error
+     */
+    private static boolean runIndexed(Path indexPath, long budget, List<String> inputs, List<String> options,
+            List<String> outputPaths, String query, String wordsFile, String removedFile, int top, boolean printStats,
+            IngestStats stats, PrintStream out, PrintStream err) {
+        boolean lookup = inputs.isEmpty() && options.isEmpty()
+                && (query != null || wordsFile != null || removedFile != null);
+        boolean ingest = !inputs.isEmpty() && !options.isEmpty()
+                && query == null && wordsFile == null && removedFile == null;
+        if (!lookup && !ingest) {
+            printUsage(err);
+            return false;
+        }
+        try {
+            List<InputFile> files = ingest ? resolveInputs(inputs) : null;
+            if (ingest && !checkNames(files, err))
+                return false;
+            long start = System.nanoTime();
+            DiskIndex index = new DiskIndex(indexPath);
+            stats.endPhase("loadRepository", start);
+
+            if (query != null && lookup) {
+                start = System.nanoTime();
+                runQuery(index::find, query, out);
+                stats.endPhase("query", start);
+            } else if (lookup) {
+                if (wordsFile != null) {
+                    start = System.nanoTime();
+                    listWords(index, fileName(name -> index.getFileRecord(name) != null, wordsFile), out);
+                    stats.endPhase("query", start);
+                }
+                if (removedFile != null) {
+                    removedFile = fileName(name -> index.getFileRecord(name) != null, removedFile);
+                    start = System.nanoTime();
+                    long removed;
+                    try (SpillingIngest spill = new SpillingIngest(index, budget)) {
+                        spill.remove(removedFile);
+                        removed = spill.commit(stats);
+                    }
+                    stats.endPhase("removeFile", start);
+                    out.println("Removed " + removedFile + " (" + removed + " words)");
+                }
+            } else {
+                start = System.nanoTime();
+                try (SpillingIngest spill = new SpillingIngest(index, budget)) {
+                    processIndexedFiles(spill, files, stats);
+                    stats.endPhase("processInputFile", start);
+                    start = System.nanoTime();
+                    spill.commit(stats);
+                    stats.endPhase("mergeRuns", start);
+                }
+                if (!checkReportOptions(options, outputPaths, err))
+                    return false;
+                start = System.nanoTime();
+                writeReports(new DiskIndex(indexPath), options, outputPaths, top, out);
+                stats.endPhase("buildReport", start);
+            }
+            if (printStats)
+                stats.print(err);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace(err);
+            return false;
+        } catch (UncheckedIOException e) {
+            e.getCause().printStackTrace(err);
+            return false;
+        }
+    }
+
+    private static void printUsage(PrintStream err) {
+        err.println("Usage: java -jar WordTracker.jar <input>... -pf|-pl|-po|-pc [-f<output.txt>] ... [-top <k>]");
+        err.println("                                 [-mmap|-tail] [-stats] [-maxpath <multiple>]");
+        err.println("                                 [-rebalance] [-arena] [-maxwords <n> [-cold <file>]]");
+        err.println("       java -jar WordTracker.jar <input>... -pf|-pl|-po|-pc ... -index <file> [-spill <megabytes>]");
+        err.println("       java -jar WordTracker.jar -q <word>[+<word>...][,...] [-cold <file> | -index <file>]");
+        err.println("       java -jar WordTracker.jar -words <file> | -remove <file> [-cold <file> | -index <file>]");
+        err.println("       java -jar WordTracker.jar -server [-port <n>] [-checkpoint <seconds>] [-arena]");
+        err.println("       java -jar WordTracker.jar -remote [-port <n>] <arguments as above>");
+    }
+
+    // Rejects inputs that would be recorded under the same name
+    private static boolean checkNames(List<InputFile> files, PrintStream err) {
+        Map<String, Path> byName = new HashMap<>();
+        for (InputFile file : files) {
+            Path other = byName.put(file.name, file.path);
+            if (other != null) {
+                err.println("Input files " + other + " and " + file.path + " would both be recorded as " + file.name
+                        + "; give their common directory instead.");
+                return false;
+            }
+        }
+        return true;
+    }
 
-            if ("-pf".equals(option)) {
-                finalOutput.append("Displaying -pf format").append(System.lineSeparator());
+    // Rejects unknown formats and more than one report on the console
+    private static boolean checkReportOptions(List<String> options, List<String> outputPaths, PrintStream err) {
+        int consoleReports = 0;
+        for (int i = 0; i < options.size(); i++) {
+            String option = options.get(i);
+            if (!"-pf".equals(option) && !"-pl".equals(option) && !"-po".equals(option) && !"-pc".equals(option)) {
+                err.println("Invalid option. Use -pf, -pl, -po, or -pc.");
+                return false;
             }
-            else if ("-pl".equals(option)) {
-                finalOutput.append("Displaying -pl format").append(System.lineSeparator());
+            String outputPath = outputPaths.get(i);
+            if (outputPath == null || outputPath.isEmpty()) {
+                consoleReports++;
             }
-            else if ("-po".equals(option)) {
-                finalOutput.append("Displaying -po format").append(System.lineSeparator());
+        }
+        if (consoleReports > 1) {
+            err.println("Only one format can be displayed on the console; use -f<output.txt> for the others.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks the shape of the tree after an ingest. Words arriving in sorted
+     * order (e.g. from a word list) turn the tree into a long chain; when the
+     * average search path grows past {@code maxPath} times log2 of the size a
+     * warning is printed, or the tree is rebuilt when {@code rebalance} is set.
+     *
+     * @param tree repository tree
+     * @param maxPath allowed average path as a multiple of log2(size)
+     * @param rebalance true to rebuild the tree instead of only warning
+     * @param stats statistics to record the tree shape in
+     * @param err where the warning goes
+     */
+    private static void checkShape(BSTree<WordInfo> tree, double maxPath, boolean rebalance, IngestStats stats,
+            PrintStream err) {
+        long start = System.nanoTime();
+        TreeStats shape = tree.getStats();
+        double limit = maxPath * Math.log(shape.getSize()) / Math.log(2);
+        if (shape.getSize() >= MIN_CHECKED_SIZE && shape.getAveragePathLength() > limit) {
+            if (rebalance) {
+                tree.rebalance();
+                shape = tree.getStats();
             } else {
-                System.err.println("Invalid option. Use -pf, -pl, or -po.");
-                return;
+                err.printf("Warning: the average search path is %.1f comparisons, more than %.1f x log2(%d) = %.1f;"
+                        + " use -rebalance to rebuild the tree (balanced: %.1f)%n", shape.getAveragePathLength(),
+                        maxPath, shape.getSize(), limit, shape.getBalancedPathLength());
+            }
+        }
+        stats.setTreeStats(shape);
+        stats.endPhase("checkShape", start);
+    }
+
+    /**
+     * Writes every requested report. Reports written to a file whose index
+     * shows it was rendered from this repository, at the generation loaded by
+     * this run, are patched with {@link #patchReport}; all others are rendered
+     * together from a single traversal of the tree. Each report goes to its
+     * output file, or to the console when it has none.
+     *
+     * @param repository repository to report on
+     * @param loadedGeneration generation of the repository before this run's ingest
+     * @param options formats to render (-pf, -pl, -po)
+     * @param outputPaths output file for each format, null or empty for the console
+     * @param top number of words listed by -pc
+     * @param consoleOut stream used as the console
+     */
+    private static void writeReports(Repository repository, long loadedGeneration, List<String> options,
+            List<String> outputPaths, int top, PrintStream consoleOut) throws IOException {
+        BSTree<WordInfo> tree = repository.getTree();
+        List<ReportTarget> targets = new ArrayList<>();
+        List<Path> outputs = new ArrayList<>();
+        ReportTarget console = null;
+        try {
+            for (int i = 0; i < options.size(); i++) {
+                String option = options.get(i);
+                String outputPath = outputPaths.get(i);
+                if (outputPath == null || outputPath.isEmpty()) {
+                    console = new ReportTarget(option, new BufferedOutputStream(consoleOut), null, null);
+                    console.writeHeader();
+                    if ("-pc".equals(option)) {
+                        writeTopReport(repository, top, console);
+                    } else {
+                        targets.add(console);
+                    }
+                    continue;
+                }
+                if ("-pc".equals(option)) {
+                    try (FileOutputStream file = new FileOutputStream(outputPath)) {
+                        ReportTarget target = new ReportTarget(option, new BufferedOutputStream(file), null, null);
+                        target.writeHeader();
+                        writeTopReport(repository, top, target);
+                    }
+                    continue;
+                }
+
+                Path output = Paths.get(outputPath);
+                ReportIndex previous = ReportIndex.load(ReportIndex.pathFor(output));
+                if (previous != null && previous.getOption().equals(option)
+                        && previous.getRepositoryId() == repository.getId()
+                        && previous.getGeneration() == loadedGeneration
+                        && previous.getSeparator().equals(System.lineSeparator())
+                        && Files.isRegularFile(output) && Files.size(output) == previous.getReportLength()
+                        && repository.getDirtyWords().size() < previous.size() / 2) {
+                    patchReport(repository, option, output, previous);
+                    continue;
+                }
+
+                FileOutputStream file = new FileOutputStream(outputPath);
+                ReportTarget target = new ReportTarget(option, new BufferedOutputStream(file, 1 << 16), file.getChannel(),
+                        new ReportIndex(option, repository.getId(), repository.getGeneration(), System.lineSeparator()));
+                targets.add(target);
+                outputs.add(output);
+                target.writeHeader();
             }
 
-            String report = buildReport(tree, option);
-            finalOutput.append(report);
+            if (!targets.isEmpty()) {
+                buildReport(tree, targets);
+            }
 
-            if (outputPath != null && !outputPath.isEmpty()) {
-                try (PrintWriter pw = new PrintWriter(new FileWriter(outputPath))) {
-                    pw.print(finalOutput.toString());
+            if (console != null) {
+                console.writeRaw(System.lineSeparator());
+                console.writeRaw("Not exporting to file" + System.lineSeparator());
+                console.out.flush();
+            }
+        } finally {
+            for (ReportTarget target : targets) {
+                if (target != console) {
+                    target.out.close();
                 }
-            } else {
-                System.out.println(finalOutput.toString());
-                System.out.println("Not exporting to file");
             }
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+        }
+        int f = 0;
+        for (ReportTarget target : targets) {
+            if (target != console) {
+                target.saveIndex(outputs.get(f++));
+            }
         }
     }
 
+    /**
+     * Writes every requested report from an on-disk index: -pf, -pl and -po
+     * together from one pass over its words, -pc from another that keeps
+     * only the most frequent words. The reports are not indexed for patching;
+     * an index left next to an earlier report is deleted instead, since it no
+     * longer matches the report.
+     *
+     * @param index index to report on
+     * @param options formats to render (-pf, -pl, -po, -pc)
+     * @param outputPaths output file for each format, null or empty for the console
+     * @param top number of words listed by -pc
+     * @param consoleOut stream used as the console
+     */
+    private static void writeReports(DiskIndex index, List<String> options, List<String> outputPaths, int top,
+            PrintStream consoleOut) throws IOException {
+        List<ReportTarget> opened = new ArrayList<>();
+        List<ReportTarget> targets = new ArrayList<>();
+        ReportTarget console = null;
+        try {
+            for (int i = 0; i < options.size(); i++) {
+                String option = options.get(i);
+                String outputPath = outputPaths.get(i);
+                ReportTarget target;
+                if (outputPath == null || outputPath.isEmpty()) {
+                    target = console = new ReportTarget(option, new BufferedOutputStream(consoleOut), null, null);
+                } else {
+                    Files.deleteIfExists(ReportIndex.pathFor(Paths.get(outputPath)));
+                    target = new ReportTarget(option, new BufferedOutputStream(new FileOutputStream(outputPath), 1 << 16),
+                            null, null);
+                    opened.add(target);
+                }
+                target.writeHeader();
+                if ("-pc".equals(option)) {
+                    writeTopReport(index.top(top), target);
+                } else {
+                    targets.add(target);
+                }
+            }
+
+            if (!targets.isEmpty()) {
+                try (DiskIndex.Cursor cursor = index.cursor()) {
+                    buildReport(cursor, index.size(), targets);
+                }
+            }
+
+            if (console != null) {
+                console.writeRaw(System.lineSeparator());
+                console.writeRaw("Not exporting to file" + System.lineSeparator());
+                console.out.flush();
+            }
+        } finally {
+            for (ReportTarget target : opened) {
+                target.out.close();
+            }
+        }
+    }
+
+    /**
+     * Re-renders a report after an ingest by patching the previous report.
+     * Runs of entries for words the ingest did not touch are copied as raw
+     * bytes from the old report; only the touched words are looked up in the
+     * tree and formatted. The formatting work is proportional to the number of
+     * changed words rather than to the size of the repository.
+     *
+     * @param repository repository after the ingest
+     * @param option report format
+     * @param output report file to patch in place
+     * @param previous index of the existing report
+     */
+    private static void patchReport(Repository repository, String option, Path output, ReportIndex previous) throws IOException {
+        BSTree<WordInfo> tree = repository.getTree();
+        List<String> dirty = new ArrayList<>(repository.getDirtyWords().size());
+        for (CharSequence word : repository.getDirtyWords()) {
+            dirty.add(word.toString());
+        }
+        Collections.sort(dirty);
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+
+        FileOutputStream file = new FileOutputStream(temp.toFile());
+        ReportTarget target = new ReportTarget(option, new BufferedOutputStream(file, 1 << 16), file.getChannel(),
+                new ReportIndex(option, repository.getId(), repository.getGeneration(), System.lineSeparator()));
+        try (FileChannel old = FileChannel.open(output, StandardOpenOption.READ)) {
+            target.writeHeader();
+            int i = 0;
+            int d = 0;
+            int n = previous.size();
+            while (i < n || d < dirty.size()) {
+                String nextDirty = d < dirty.size() ? dirty.get(d) : null;
+                if (nextDirty == null || (i < n && previous.getWord(i).compareTo(nextDirty) < 0)) {
+                    // copy the run of unchanged entries before the next dirty word
+                    int j = i + 1;
+                    while (j < n && (nextDirty == null || previous.getWord(j).compareTo(nextDirty) < 0)) {
+                        j++;
+                    }
+                    target.copy(old, previous, i, j);
+                    i = j;
+                } else {
+                    if (i < n && previous.getWord(i).equals(nextDirty)) {
+                        i++; // replaced by the re-rendered entry
+                    }
+                    BSTreeNode<WordInfo> node = tree.search(new WordInfo(nextDirty));
+                    if (node != null) {
+                        target.entry.setLength(0);
+                        formatWordInfo(node.getData(), option, target.entry);
+                        target.write(nextDirty, target.entry);
+                    }
+                    d++;
+                }
+            }
+            target.finish();
+        } finally {
+            target.out.close();
+        }
+        Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+        target.saveIndex(output);
+    }
+
+    /**
+     * Answers a query against the repository without ingesting anything or
+     * rendering a report. Every comma separated term is answered on its own
+     * line in the -pl style. A term whose words are joined with + lists, per
+     * file, only the lines on which all of its words occur; the words' line
+     * lists are intersected smallest first with {@link PostingLists}.
+     * Postings of words evicted to a cold store are included when one is
+     * given.
+     *
+     * @param repository repository to search
+     * @param cold store of evicted words, or null
+     * @param query comma separated terms, e.g. hello,hello+kitty
+     * @param console stream the answers are printed to
+     */
+    private static void runQuery(Repository repository, ColdStore cold, String query, PrintStream console)
+            throws IOException {
+        runQuery(word -> {
+            WordInfo wi = repository.find(word);
+            if (cold != null) {
+                // archived postings first: they were recorded before the current ones
+                WordInfo archived = cold.find(word);
+                if (archived != null && wi != null)
+                    archived.addAll(wi);
+                if (archived != null)
+                    wi = archived;
+            }
+            return wi;
+        }, query, console);
+    }
+
+    // Looks a word up in a repository or an index
+    private interface WordLookup {
+        // returns the word's postings, or null if it is not there
+        WordInfo find(String word) throws IOException;
+    }
+
+    // Answers a query as runQuery(Repository, ColdStore, String, PrintStream)
+    // does, looking its words up with the given lookup
+    private static void runQuery(WordLookup lookup, String query, PrintStream console) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(console));
+        for (String term : query.split(",")) {
+            List<String> words = queryWords(term);
+            if (words.isEmpty()) {
+                continue;
+            }
+            StringJoiner key = new StringJoiner("+");
+            for (String word : words) {
+                key.add(displayWord(word));
+            }
+
+            List<WordInfo> found = new ArrayList<>();
+            for (String word : words) {
+                WordInfo wi = lookup.find(word);
+                if (wi == null) {
+                    found = null;
+                    break;
+                }
+                found.add(wi);
+            }
+            if (found == null) {
+                out.write("Key : ===" + key + "=== not found" + System.lineSeparator());
+                continue;
+            }
+
+            StringBuilder sb = new StringBuilder("Key : ===").append(key).append("===");
+            boolean any = false;
+            for (Map.Entry<String, List<Integer>> entry : found.get(0).getLocations().entrySet()) {
+                String file = entry.getKey();
+                List<int[]> lists = new ArrayList<>();
+                for (WordInfo wi : found) {
+                    List<Integer> lines = wi.getLocations().get(file);
+                    if (lines == null) {
+                        lists = null;
+                        break;
+                    }
+                    lists.add(PostingLists.toSortedArray(lines));
+                }
+                if (lists == null) {
+                    continue;
+                }
+                lists.sort(Comparator.comparingInt(a -> a.length));
+                int[] common = lists.get(0);
+                for (int l = 1; l < lists.size() && common.length > 0; l++) {
+                    common = PostingLists.intersect(common, lists.get(l));
+                }
+                if (common.length == 0) {
+                    continue;
+                }
+                any = true;
+                sb.append(" found in file: ").append(file).append(" on lines: ");
+                for (int line : common) {
+                    sb.append(line).append(",");
+                }
+            }
+            if (!any) {
+                sb.append(" not found");
+            }
+            out.write(sb + System.lineSeparator());
+        }
+        out.flush();
+    }
+
+    /**
+     * Lists the words of one file, in alphabetical order, each with the lines
+     * of that file it occurs on. The words are taken from the repository's
+     * per-file index, so only they are looked up in the tree.
+     *
+     * @param repository repository to search
+     * @param fileName file name as used in the postings
+     * @param console stream the list is printed to
+     */
+    private static void listWords(Repository repository, String fileName, PrintStream console) throws IOException {
+        List<String> words = new ArrayList<>();
+        for (CharSequence word : repository.getWordsInFile(fileName)) {
+            words.add(word.toString());
+        }
+        if (words.isEmpty()) {
+            console.println("File " + fileName + " not found");
+            return;
+        }
+        Collections.sort(words);
+        Writer out = new BufferedWriter(new OutputStreamWriter(console));
+        for (String word : words) {
+            out.write(fileEntry(word, fileName, repository.find(word).getLocations().get(fileName)));
+        }
+        out.flush();
+    }
+
+    /**
+     * Same as {@link #listWords(Repository, String, PrintStream)} on an
+     * on-disk index. The index has no per-file word lists, so every word of
+     * it is read, in order, and only one at a time is held.
+     *
+     * @param index index to search
+     * @param fileName file name as used in the postings
+     * @param console stream the list is printed to
+     */
+    private static void listWords(DiskIndex index, String fileName, PrintStream console) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(console));
+        boolean any = false;
+        try (DiskIndex.Cursor cursor = index.cursor()) {
+            while (cursor.hasNext()) {
+                WordInfo wi = cursor.next();
+                List<Integer> lines = wi.getLocations().get(fileName);
+                if (lines != null) {
+                    out.write(fileEntry(wi.getWord(), fileName, lines));
+                    any = true;
+                }
+            }
+        }
+        out.flush();
+        if (!any)
+            console.println("File " + fileName + " not found");
+    }
+
+    // Formats the lines of one file a word is on, as listed by -words
+    private static String fileEntry(String word, String fileName, List<Integer> lines) {
+        StringBuilder sb = new StringBuilder("Key : ===").append(displayWord(word)).append("=== found in file: ")
+                .append(fileName).append(" on lines: ");
+        for (int line : lines) {
+            sb.append(line).append(",");
+        }
+        return sb.append(System.lineSeparator()).toString();
+    }
+
+    // Tells whether every term of a query has a word the Bloom filter rules out
+    private static boolean rulesOut(BloomFilter bloom, String query) {
+        for (String term : query.split(",")) {
+            boolean absent = true;
+            for (String word : queryWords(term)) {
+                absent = !bloom.mightContain(word);
+                if (absent)
+                    break;
+            }
+            if (!absent)
+                return false;
+        }
+        return true;
+    }
+
+    // Splits a query term on + and normalizes each part with the ingest tokenizer rules
+    private static List<String> queryWords(String term) {
+        List<String> words = new ArrayList<>();
+        WordTokenizer tokenizer = new WordTokenizer((buf, len, lineNumber) -> words.add(new String(buf, 0, len)));
+        for (String part : term.split("\\+")) {
+            tokenizer.line(part, 1);
+        }
+        return words;
+    }
+
     /**
      * Loads the serialized repository from disk. If the repository file does
-     * not exist a fresh empty {@code BSTree} is returned.
+     * not exist a fresh empty {@code Repository} is returned. Files written by
+     * older versions, which held the bare tree, are wrapped on load.
+     *
+     * @return previously saved repository or a new empty one
+     */
+    static Repository loadRepository() throws IOException, ClassNotFoundException {
+        return loadRepository(new File(REPO_FILE));
+    }
+
+    /**
+     * Loads a serialized repository from the given file.
      *
-     * @return previously saved tree or a new empty tree
+     * @param repo repository file
+     * @return repository stored in the file or a new empty one if it does not exist
      */
     @SuppressWarnings("unchecked")
-    private static BSTree<WordInfo> loadRepository() throws IOException, ClassNotFoundException {
-        File repo = new File(REPO_FILE);
+    static Repository loadRepository(File repo) throws IOException, ClassNotFoundException {
         if (!repo.exists()) {
-            return new BSTree<>();
+            return new Repository();
         }
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(repo))) {
-            Object obj = ois.readObject();
-            return (BSTree<WordInfo>) obj;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(repo))) {
+            BloomFilter bloom = readBloomFilter(in);
+            Object obj = new ObjectInputStream(in).readObject();
+            Repository repository = obj instanceof BSTree ? new Repository((BSTree<WordInfo>) obj) : (Repository) obj;
+            if (bloom != null)
+                repository.setBloomFilter(bloom);
+            return repository;
         }
     }
 
     /**
-     * Saves the repository tree to disk (serialized) overwriting the previous
+     * Reads only the Bloom filter in the header of a repository file, which
+     * is enough to tell that a word is not in the repository.
+     *
+     * @param repo repository file
+     * @return the filter, an empty one if the file does not exist, or null if the file has no header
+     */
+    static BloomFilter loadBloomFilter(File repo) throws IOException {
+        if (!repo.exists()) {
+            return new BloomFilter(0);
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(repo))) {
+            return readBloomFilter(in);
+        }
+    }
+
+    // Reads the Bloom filter header if there is one; otherwise leaves the stream where it was
+    private static BloomFilter readBloomFilter(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        in.mark(4);
+        if (data.readInt() != BLOOM_MAGIC) {
+            in.reset();
+            return null;
+        }
+        return BloomFilter.read(data);
+    }
+
+    /**
+     * Saves the repository to disk (serialized) overwriting the previous
      * repository file.
      *
-     * @param tree tree to persist
+     * @param repository repository to persist
+     */
+    static void saveRepository(Repository repository) throws IOException {
+        saveRepository(repository, new File(REPO_FILE));
+    }
+
+    /**
+     * Saves the repository to the given file, replacing it. The file starts
+     * with a header holding the repository's Bloom filter, followed by the
+     * serialized repository.
+     *
+     * The repository is written to a temporary file in the same directory,
+     * which is then renamed over the repository file, so a crash or a full
+     * disk while saving leaves the previous repository intact.
+     *
+     * @param repository repository to persist
+     * @param repo repository file
+     */
+    static void saveRepository(Repository repository, File repo) throws IOException {
+        Path target = repo.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                    OutputStream out = new BufferedOutputStream(file)) {
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeInt(BLOOM_MAGIC);
+                repository.getBloomFilter().write(data);
+                data.flush();
+                ObjectOutputStream oos = new ObjectOutputStream(out);
+                oos.writeObject(repository);
+                oos.flush();
+                file.getFD().sync();
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Expands the command line inputs into the list of files to process.
+     * Directories contribute every regular file below them and arguments
+     * containing glob characters are matched against the files below their
+     * non-glob leading directory. Plain paths are passed through unchanged so
+     * a missing file still fails when it is read.
+     *
+     * Every file is named by its path relative to the directory it was found
+     * in (the directory argument or the glob's base directory), so files with
+     * the same name in different subdirectories are kept apart; a plain file
+     * is named by its file name.
+     *
+     * @param inputs file, directory or glob arguments
+     * @return files to process, in argument order (sorted within each argument)
+     */
+    private static List<InputFile> resolveInputs(List<String> inputs) throws IOException {
+        List<InputFile> files = new ArrayList<>();
+        for (String input : inputs) {
+            if (input.matches(".*[*?\\[{].*")) {
+                files.addAll(expandGlob(input));
+            } else {
+                Path path = Paths.get(input);
+                if (Files.isDirectory(path)) {
+                    files.addAll(listFiles(path, p -> true));
+                } else {
+                    files.add(new InputFile(path, path.getFileName().toString()));
+                }
+            }
+        }
+        return files;
+    }
+
+    // An input file and the name its postings and record are kept under
+    private static final class InputFile {
+        final Path path;
+        final String name;
+
+        InputFile(Path path, String name) {
+            this.path = path;
+            this.name = name;
+        }
+    }
+
+    // Returns the name a file given to -words or -remove is recorded under: the
+    // longest trailing part of its path that names a known file (so both
+    // docs/a/notes.txt and a/notes.txt find a/notes.txt from a directory
+    // ingest of docs), otherwise its file name
+    private static String fileName(Repository repository, String arg) {
+        return fileName(name -> repository.getFileRecord(name) != null || !repository.getWordsInFile(name).isEmpty(),
+                arg);
+    }
+
+    // Same as fileName(Repository, String), given which names are known
+    private static String fileName(Predicate<String> known, String arg) {
+        for (String tail = arg.replace('\\', '/'); ; tail = tail.substring(tail.indexOf('/') + 1)) {
+            if (known.test(tail))
+                return tail;
+            if (tail.indexOf('/') < 0)
+                return Paths.get(arg).getFileName().toString();
+        }
+    }
+
+    // Splits a glob into its literal base directory and the pattern below it
+    private static List<InputFile> expandGlob(String glob) throws IOException {
+        String normalized = glob.replace('\\', '/');
+        int meta = normalized.length();
+        for (char c : new char[] { '*', '?', '[', '{' }) {
+            int idx = normalized.indexOf(c);
+            if (idx >= 0)
+                meta = Math.min(meta, idx);
+        }
+        int slash = normalized.lastIndexOf('/', meta);
+        Path base = slash < 0 ? Paths.get(".") : Paths.get(slash == 0 ? "/" : normalized.substring(0, slash));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + normalized.substring(slash + 1));
+        if (!Files.isDirectory(base))
+            return Collections.emptyList();
+        return listFiles(base, p -> matcher.matches(base.relativize(p)));
+    }
+
+    // Lists the regular files below a directory in sorted order, named by
+    // their path relative to it
+    private static List<InputFile> listFiles(Path dir, Predicate<Path> filter) throws IOException {
+        List<InputFile> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.filter(Files::isRegularFile).filter(filter).sorted().forEach(p -> files.add(
+                    new InputFile(p, dir.relativize(p).toString().replace(File.separatorChar, '/'))));
+        }
+        return files;
+    }
+
+    /**
+     * Indexes several files in parallel. Each file is tokenized on a worker of
+     * a fork-join pool into its own local tree; the local trees are then
+     * merged into the repository tree in input order, so the result is the
+     * same as processing the files one after another. In mapped mode the
+     * files are taken one at a time and each one is split across the pool
+     * instead.
+     *
+     * A file whose size and content hash match the ones recorded when it was
+     * last ingested is skipped without touching the tree. A file that has
+     * changed has its old postings removed before the new ones are merged,
+     * so ingesting a file again never duplicates its line numbers.
+     *
+     * In tail mode files are assumed to only grow: only the bytes appended
+     * since the last ingest are read (see {@link #ingest}).
+     *
+     * Under a vocabulary cap words are evicted after every merge, and only as
+     * many files are tokenized ahead of the merges as there are workers, so
+     * the local trees waiting to be merged stay few as well.
+     *
+     * @param repository repository to update
+     * @param files files to process
+     * @param mapped true to index each file with {@link #processMappedFile}
+     * @param tail true to read only what was appended to files ingested before; overrides {@code mapped}
+     * @param cap cap on the number of distinct words
+     * @param stats statistics to add the token and word counts to
      */
-    private static void saveRepository(BSTree<WordInfo> tree) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(REPO_FILE))) {
-            oos.writeObject(tree);
+    private static void processInputFiles(Repository repository, List<InputFile> files, boolean mapped,
+            boolean tail, VocabularyCap cap, IngestStats stats) throws IOException {
+        mapped &= !tail;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = mapped ? cores : Math.max(1, Math.min(files.size(), cores));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            if (mapped) {
+                for (InputFile file : files) {
+                    processMappedFile(repository, file.path, file.name, pool, cap, stats);
+                }
+                return;
+            }
+            int ahead = cap.isSet() ? threads : files.size();
+            List<Future<Ingested>> results = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                while (results.size() < files.size() && results.size() < i + ahead) {
+                    InputFile file = files.get(results.size());
+                    FileRecord known = repository.getFileRecord(file.name);
+                    results.add(pool.submit(() -> ingest(file.path, file.name, known, tail, stats)));
+                }
+                Ingested ingested = await(results.get(i));
+                results.set(i, null); // the local tree is merged below
+                String fileName = files.get(i).name;
+                if (ingested.tree == null) {
+                    stats.addFiles(0, 1);
+                    continue;
+                }
+                if (!ingested.tail) {
+                    repository.removeFile(fileName);
+                    if (ingested.known != null)
+                        cap.replaced(fileName, 0);
+                } else if (ingested.retract != null) {
+                    repository.removeLines(fileName, ingested.known.getLastLine(), ingested.retract);
+                    cap.replaced(fileName, ingested.known.getLastLine());
+                }
+                merge(repository, ingested.tree, stats);
+                repository.putFileRecord(fileName, ingested.record);
+                stats.addFiles(1, 0);
+                cap.evict(repository);
+            }
+        } finally {
+            pool.shutdownNow();
         }
     }
 
     /**
-     * Reads the given input file line-by-line, tokenizes each line into
-     * lower-cased words (letters only) and records each occurrence into the
-     * provided tree. Non-letter characters are removed so words like
-     * "hello," and "hello" are treated the same.
+     * Ingests files into an on-disk index in bounded memory (-index). The
+     * files are read one after the other into the spilling ingest's tree,
+     * which is written out as a sorted run whenever it reaches the budget.
+     * As in {@link #ingest}, a file whose size and hash match its record is
+     * skipped, and a changed file replaces its old postings; the merge into
+     * the index is left to the caller.
+     *
+     * @param spill ingest collecting the postings
+     * @param files files to process
+     * @param stats statistics to add the counts to
+     */
+    private static void processIndexedFiles(SpillingIngest spill, List<InputFile> files, IngestStats stats)
+            throws IOException {
+        for (InputFile file : files) {
+            FileRecord known = spill.getFileRecord(file.name);
+            if (known != null && Files.size(file.path) == known.getSize() && FileRecord.of(file.path).sameContent(known)) {
+                stats.addFiles(0, 1);
+                continue;
+            }
+            spill.startFile(file.name);
+            long[] counts = new long[2]; // tokens, key comparisons
+            FileRecord record;
+            try {
+                record = readFile(file.path, 0, 1, (buf, len, lineNumber) -> {
+                    counts[0]++;
+                    counts[1] += addWordOccurrence(spill.getTree(), buf, len, file.name, lineNumber);
+                    try {
+                        spill.added();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            stats.addTokens(counts[0], counts[1]);
+            spill.putFileRecord(file.name, record);
+            stats.addFiles(1, 0);
+        }
+    }
+
+    /**
+     * Indexes a single (large) file by memory-mapping it and splitting it into
+     * chunks that end on a newline. The lines in every chunk are counted in
+     * parallel first so each chunk knows its absolute starting line number;
+     * the chunks are then tokenized in parallel into local trees which are
+     * merged into the repository in file order. One more task hashes the
+     * chunks meanwhile, unless the file had the same size before: it is then
+     * hashed first, and skipped if it has not changed.
+     *
+     * @param repository repository to update
+     * @param path file to process
+     * @param fileName name to record the postings under
+     * @param pool pool to run the chunk tasks on
+     * @param cap cap on the number of distinct words, applied after every chunk
+     * @param stats statistics to add the token and word counts to
+     */
+    private static void processMappedFile(Repository repository, Path path, String fileName, ForkJoinPool pool,
+            VocabularyCap cap, IngestStats stats) throws IOException {
+        FileRecord known = repository.getFileRecord(fileName);
+        // as in ingest, only a file of the same size as before is hashed up front
+        FileRecord hashed = null;
+        if (known != null && Files.size(path) == known.getSize()) {
+            hashed = FileRecord.of(path);
+            if (hashed.sameContent(known)) {
+                stats.addFiles(0, 1);
+                return;
+            }
+        }
+        repository.removeFile(fileName);
+        if (known != null)
+            cap.replaced(fileName, 0);
+        FileRecord record;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<MappedByteBuffer> chunks = mapChunks(channel, pool.getParallelism());
+
+            // otherwise the chunks are hashed by one more task, while the others tokenize them
+            Future<byte[]> hash = hashed != null ? null : pool.submit(() -> {
+                MessageDigest digest = FileRecord.newDigest();
+                for (MappedByteBuffer chunk : chunks) {
+                    digest.update(chunk.duplicate());
+                }
+                return digest.digest();
+            });
+
+            List<Future<Integer>> counts = new ArrayList<>();
+            for (MappedByteBuffer chunk : chunks) {
+                counts.add(pool.submit(() -> countLines(chunk.duplicate())));
+            }
+
+            // under a cap, chunks are tokenized only one pool's worth ahead of the merges
+            int ahead = cap.isSet() ? pool.getParallelism() : chunks.size();
+            List<Future<BSTree<WordInfo>>> results = new ArrayList<>();
+            int merged = 0;
+            int firstLine = 1;
+            for (int c = 0; c < chunks.size(); c++) {
+                if (c - merged == ahead) {
+                    merge(repository, await(results.get(merged)), stats);
+                    results.set(merged++, null);
+                    cap.evict(repository);
+                }
+                final MappedByteBuffer chunk = chunks.get(c);
+                final int chunkLine = firstLine;
+                results.add(pool.submit(() -> {
+                    BSTree<WordInfo> local = new BSTree<>();
+                    long[] tally = new long[2]; // tokens, key comparisons
+                    WordTokenizer tokenizer = new WordTokenizer((buf, len, lineNumber) -> {
+                        tally[0]++;
+                        tally[1] += addWordOccurrence(local, buf, len, fileName, lineNumber);
+                    }, chunkLine);
+                    tokenizer.scan(chunk.duplicate());
+                    tokenizer.finish();
+                    stats.addTokens(tally[0], tally[1]);
+                    return local;
+                }));
+                firstLine += await(counts.get(c));
+            }
+            for (; merged < results.size(); merged++) {
+                merge(repository, await(results.get(merged)), stats);
+                results.set(merged, null);
+                cap.evict(repository);
+            }
+
+            // find where the last line starts, for a later tail ingest
+            long mapped = 0;
+            long lineStart = 0;
+            for (MappedByteBuffer chunk : chunks) {
+                for (int b = chunk.limit() - 1; b >= 0; b--) {
+                    byte c = chunk.get(b);
+                    if (c == '\n' || c == '\r') {
+                        lineStart = mapped + b + 1;
+                        break;
+                    }
+                }
+                mapped += chunk.limit();
+            }
+            if (hash != null)
+                record = new FileRecord(mapped, await(hash), lineStart, firstLine);
+            else if (mapped == hashed.getSize())
+                record = hashed.withLastLine(lineStart, firstLine);
+            else
+                record = new FileRecord(mapped, null, lineStart, firstLine); // changed since it was hashed
+        }
+        repository.putFileRecord(fileName, record);
+        stats.addFiles(1, 0);
+    }
+
+    /**
+     * Indexes one file into a local tree, unless it has not changed since it
+     * was last ingested. Normally the file is indexed from the start and
+     * hashed while it is read; only a file of the same size as before, which
+     * may be unchanged, is hashed first and skipped if the hash matches.
+     *
+     * In tail mode a file that has grown is read from the start of the last
+     * line seen before, with the line numbering continuing from there. If
+     * that line had no terminator yet it is read again in full; the words it
+     * held then are returned in {@link Ingested#retract} so their postings on
+     * that line can be taken back first. A file that is shorter than before
+     * is indexed again from the start.
+     *
+     * @param file file to index
+     * @param fileName name to record the postings under
+     * @param known record of the file's last ingest, or null
+     * @param tail true to read only what was appended since {@code known}
+     * @param stats statistics to add the token counts to
+     * @return the outcome; its tree is null if the file is unchanged
+     */
+    private static Ingested ingest(Path file, String fileName, FileRecord known, boolean tail, IngestStats stats)
+            throws IOException {
+        Ingested ingested = new Ingested(known);
+        if (tail && known != null && known.canTail()) {
+            long size = Files.size(file);
+            if (size == known.getSize())
+                return ingested;
+            if (size > known.getSize()) {
+                ingested.tail = true;
+                if (known.getSize() > known.getLineStart())
+                    ingested.retract = wordsBetween(file, known.getLineStart(), known.getSize());
+                ingested.tree = new BSTree<>();
+                ingested.record = processInputFile(ingested.tree, file, fileName, known.getLineStart(),
+                        known.getLastLine(), stats);
+                return ingested;
+            }
+        }
+        if (known != null && Files.size(file) == known.getSize() && FileRecord.of(file).sameContent(known))
+            return ingested;
+        ingested.tree = new BSTree<>();
+        ingested.record = processInputFile(ingested.tree, file, fileName, 0, 1, stats);
+        return ingested;
+    }
+
+    // Returns the words in a byte range of a file
+    private static Set<String> wordsBetween(Path file, long from, long to) throws IOException {
+        Set<String> words = new HashSet<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WordTokenizer tokenizer = new WordTokenizer((buf, len, lineNumber) -> words.add(new String(buf, 0, len)));
+            channel.position(from);
+            tokenizer.read(channel, to - from);
+            tokenizer.finish();
+        }
+        return words;
+    }
+
+    /**
+     * The -maxwords cap of one ingest. Evicts the least frequent words once
+     * the repository has more than the cap, archiving them in the cold store
+     * if there is one, and drops the archived postings of files whose
+     * postings are replaced.
+     */
+    private static final class VocabularyCap {
+        // 0 for no cap
+        final int maxWords;
+        // null to discard evicted words
+        final ColdStore cold;
+        final IngestStats stats;
+
+        VocabularyCap(int maxWords, ColdStore cold, IngestStats stats) {
+            this.maxWords = maxWords;
+            this.cold = cold;
+            this.stats = stats;
+        }
+
+        boolean isSet() {
+            return maxWords > 0;
+        }
+
+        // Called when a file's postings from fromLine on (0: all) are replaced
+        void replaced(String fileName, int fromLine) throws IOException {
+            if (cold != null)
+                cold.drop(fileName, fromLine);
+        }
+
+        void evict(Repository repository) throws IOException {
+            if (maxWords <= 0 || repository.getTree().size() <= maxWords)
+                return;
+            long start = System.nanoTime();
+            List<WordInfo> evicted = repository.evict(maxWords);
+            if (cold != null)
+                cold.append(evicted);
+            stats.addEvicted(evicted.size());
+            stats.endPhase("evict", start);
+        }
+    }
+
+    // Outcome of a worker: the file's record from before and, unless the file
+    // was unchanged, the tree built from it and its new record
+    private static class Ingested {
+        final FileRecord known;
+        BSTree<WordInfo> tree;
+        FileRecord record;
+        // true if only the end of the file was read
+        boolean tail;
+        // words to take back from the known record's last line before merging
+        Set<String> retract;
+
+        Ingested(FileRecord known) {
+            this.known = known;
+        }
+    }
+
+    // Merges a local tree into the repository, counting new and existing words
+    private static void merge(Repository repository, BSTree<WordInfo> local, IngestStats stats) {
+        int words = local.size();
+        int added = repository.merge(local);
+        stats.addWords(added, words - added);
+    }
+
+    // Smallest and largest chunk sizes used when splitting a mapped file
+    private static final long MIN_CHUNK = 1L << 20;
+    private static final long MAX_CHUNK = 64L << 20;
+
+    /**
+     * Maps a file as a list of read-only chunks. Every chunk but the last ends
+     * directly after a '\n', so no line (and no UTF-8 sequence or "\r\n"
+     * pair) is split between two chunks.
+     *
+     * @param channel open channel of the file
+     * @param parallelism number of workers the chunks are shared between
+     * @return the mapped chunks in file order
+     */
+    private static List<MappedByteBuffer> mapChunks(FileChannel channel, int parallelism) throws IOException {
+        long size = channel.size();
+        long target = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size / (parallelism * 4L)));
+        List<MappedByteBuffer> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(start + target, size);
+            // move the end forward to just after the next newline
+            boolean found = end == size;
+            while (!found) {
+                probe.clear();
+                int n = channel.read(probe, end);
+                if (n <= 0) {
+                    end = size;
+                    break;
+                }
+                for (int b = 0; b < n; b++) {
+                    if (probe.get(b) == '\n') {
+                        end += b + 1;
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found)
+                    end += n;
+            }
+            chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+            start = end;
+        }
+        return chunks;
+    }
+
+    // Counts line terminators the same way BufferedReader.readLine does:
+    // "\n", "\r" and "\r\n" each end one line.
+    private static int countLines(ByteBuffer bytes) {
+        int lines = 0;
+        boolean lastWasCR = false;
+        while (bytes.hasRemaining()) {
+            byte b = bytes.get();
+            if (b == '\n') {
+                if (!lastWasCR)
+                    lines++;
+                lastWasCR = false;
+            } else if (b == '\r') {
+                lines++;
+                lastWasCR = true;
+            } else {
+                lastWasCR = false;
+            }
+        }
+        return lines;
+    }
+
+    // Waits for a worker result, rethrowing the worker's IOException as is
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            // fork-join wraps checked exceptions thrown by a Callable, so look
+            // down the cause chain for the original IOException
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+            }
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Reads the given input file, tokenizes it into lower-cased words (letters
+     * only) and records each occurrence into the provided tree. Non-letter
+     * characters are removed so words like "hello," and "hello" are treated
+     * the same. The file is read as raw bytes and only non-ASCII bytes are
+     * run through the UTF-8 decoder (see {@link WordTokenizer#read}).
      *
      * @param tree repository tree to update
      * @param inputPath path to the text file to process
      */
-    private static void processInputFile(BSTree<WordInfo> tree, String inputPath) throws IOException {
+    static void processInputFile(BSTree<WordInfo> tree, String inputPath) throws IOException {
+        processInputFile(tree, inputPath, new IngestStats());
+    }
+
+    /**
+     * Same as {@link #processInputFile(BSTree, String)}, adding the number of
+     * tokens read and key comparisons made to the given statistics.
+     *
+     * @param tree repository tree to update
+     * @param inputPath path to the text file to process
+     * @param stats statistics to add the counts to
+     */
+    static void processInputFile(BSTree<WordInfo> tree, String inputPath, IngestStats stats) throws IOException {
         Path path = Paths.get(inputPath);
-        String fileName = path.getFileName().toString();
+        processInputFile(tree, path, path.getFileName().toString(), 0, 1, stats);
+    }
 
-        try (BufferedReader reader = Files.newBufferedReader(path)) {
-            String line;
-            int lineNumber = 0;
-            while ((line = reader.readLine()) != null) {
-                lineNumber++;
-                // Strip all non-letter, non-space characters so that only spaces separate pure letter words
-                line = line.replaceAll("[^A-Za-z ]", "");
-                String[] tokens = line.split(" +");
-                for (String raw : tokens) {
-                    if (raw.isEmpty()) continue;
-                    String word = raw.toLowerCase();
-                    addWordOccurrence(tree, word, fileName, lineNumber);
-                }
+    /**
+     * Indexes a file from a byte offset to its end. The offset must be the
+     * start of a line; words are numbered from {@code firstLine} on.
+     *
+     * @param tree repository tree to update
+     * @param path file to process
+     * @param fileName name to record the postings under
+     * @param offset byte offset to start reading at
+     * @param firstLine line number of the line starting at {@code offset}
+     * @param stats statistics to add the counts to
+     * @return record of the bytes read: where they end and where the last line starts, and their hash
+     *         if {@code offset} is 0
+     */
+    static FileRecord processInputFile(BSTree<WordInfo> tree, Path path, String fileName, long offset, int firstLine,
+            IngestStats stats) throws IOException {
+        long[] counts = new long[2]; // tokens, key comparisons
+        FileRecord read = readFile(path, offset, firstLine, (buf, len, lineNumber) -> {
+            counts[0]++;
+            counts[1] += addWordOccurrence(tree, buf, len, fileName, lineNumber);
+        });
+        stats.addTokens(counts[0], counts[1]);
+        return read;
+    }
+
+    // Tokenizes a file from a byte offset to its end into a sink and returns
+    // a record of the bytes read, hashed if they are the whole file
+    private static FileRecord readFile(Path path, long offset, int firstLine, WordTokenizer.WordSink sink)
+            throws IOException {
+        WordTokenizer tokenizer = new WordTokenizer(sink, firstLine);
+        MessageDigest digest = offset == 0 ? FileRecord.newDigest() : null;
+        long start = offset;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (start > 0) {
+                // a "\r\n" whose "\n" was appended later ends the line before, not this one
+                ByteBuffer pair = ByteBuffer.allocate(2);
+                channel.read(pair, start - 1);
+                if (pair.position() == 2 && pair.get(0) == '\r' && pair.get(1) == '\n')
+                    start++;
             }
+            channel.position(start);
+            tokenizer.read(digest == null ? channel : FileRecord.hashing(channel, digest));
+            tokenizer.finish();
         }
+        return new FileRecord(start + tokenizer.getScanned(), digest == null ? null : digest.digest(),
+                start + tokenizer.getLineStart(), tokenizer.getLineNumber());
     }
 
     /**
@@ -194,31 +1905,268 @@ public class WordTracker implements Serializable {
     }
 
     /**
-     * Traverses the tree in-order and builds the textual report according to
-     * the selected option (-pf, -pl, -po).
+     * Same as {@link #addWordOccurrence(BSTree, String, String, int)} but takes
+     * the word as a slice of the tokenizer's buffer. The tree is searched by
+     * comparing the slice directly against the stored words, so a String is
+     * only created when the word is new. Most steps only compare the packed
+     * prefixes (see {@link WordInfo#prefix(CharSequence)}).
+     *
+     * @param tree repository tree
+     * @param buf buffer holding the lower-cased word
+     * @param len length of the word in {@code buf}
+     * @param fileName source file name
+     * @param lineNumber line number where word was found
+     * @return number of key comparisons made to find the word's place
+     */
+    private static int addWordOccurrence(BSTree<WordInfo> tree, char[] buf, int len, String fileName, int lineNumber) {
+        BSTreeNode<WordInfo> current = tree.isEmpty() ? null : tree.getRoot();
+        long prefix = WordInfo.prefix(buf, len);
+        int comparisons = 0;
+        while (current != null) {
+            WordInfo data = current.getData();
+            long other = data.getPrefix();
+            int cmp = prefix != other && prefix >= 0 && other >= 0 ? (prefix < other ? -1 : 1)
+                    : compareSlice(buf, len, data.getWord());
+            comparisons++;
+            if (cmp == 0) {
+                data.addOccurrence(fileName, lineNumber);
+                return comparisons;
+            }
+            current = (cmp < 0) ? current.getLeft() : current.getRight();
+        }
+        addWordOccurrence(tree, new String(buf, 0, len), fileName, lineNumber);
+        return comparisons;
+    }
+
+    // Compares a char slice with a String using the same ordering as String.compareTo
+    private static int compareSlice(char[] buf, int len, String word) {
+        int n = Math.min(len, word.length());
+        for (int i = 0; i < n; i++) {
+            char c = word.charAt(i);
+            if (buf[i] != c)
+                return buf[i] - c;
+        }
+        return len - word.length();
+    }
+
+    /**
+     * One report being written: the format, where it goes and whether an
+     * entry has been written yet (entries are separated by line separators).
+     * Entries are encoded here so the byte position of each one is known and
+     * can be recorded in the report's index.
+     */
+    static class ReportTarget {
+        final String option;
+        final OutputStream out;
+        final StringBuilder entry = new StringBuilder();
+        private final FileChannel channel;
+        private final ReportIndex index;
+        private final Charset charset = Charset.defaultCharset();
+        private final byte[] separator = System.lineSeparator().getBytes(charset);
+        private boolean firstEntry = true;
+        private long position;
+
+        /**
+         * @param option report format
+         * @param out stream the report is written to
+         * @param channel channel underneath {@code out}, needed to copy from an old report; may be null
+         * @param index index to record the entries in; may be null
+         */
+        ReportTarget(String option, OutputStream out, FileChannel channel, ReportIndex index) {
+            this.option = option;
+            this.out = out;
+            this.channel = channel;
+            this.index = index;
+        }
+
+        void writeHeader() throws IOException {
+            writeRaw("Displaying " + option + " format" + System.lineSeparator());
+        }
+
+        void writeRaw(String text) throws IOException {
+            byte[] bytes = text.getBytes(charset);
+            out.write(bytes);
+            position += bytes.length;
+        }
+
+        // Writes one formatted entry, skipping empty ones
+        void write(CharSequence word, CharSequence formatted) throws IOException {
+            if (formatted.length() == 0) {
+                return;
+            }
+            separate();
+            byte[] bytes = formatted.toString().getBytes(charset);
+            if (index != null) {
+                index.add(word.toString(), position, bytes.length);
+            }
+            out.write(bytes);
+            position += bytes.length;
+        }
+
+        // Copies entries [from, to) of an old report, which are contiguous there
+        void copy(FileChannel old, ReportIndex previous, int from, int to) throws IOException {
+            separate();
+            long start = previous.getOffset(from);
+            long end = previous.getOffset(to - 1) + previous.getLength(to - 1);
+            for (int i = from; i < to; i++) {
+                index.add(previous.getWord(i), position + previous.getOffset(i) - start, previous.getLength(i));
+            }
+            out.flush();
+            for (long done = 0; done < end - start;) {
+                done += old.transferTo(start + done, end - start - done, channel);
+            }
+            position += end - start;
+        }
+
+        private void separate() throws IOException {
+            if (!firstEntry) {
+                out.write(separator);
+                position += separator.length;
+            }
+            firstEntry = false;
+        }
+
+        void finish() throws IOException {
+            out.write(separator);
+            position += separator.length;
+            out.flush();
+        }
+
+        void saveIndex(Path report) throws IOException {
+            index.setReportLength(position);
+            index.save(ReportIndex.pathFor(report));
+        }
+    }
+
+    /**
+     * Writes the -pc report: the most frequent words with their total number
+     * of occurrences, taken from the repository's frequency index so only the
+     * listed words are visited.
+     *
+     * @param repository repository to report on
+     * @param top number of words to list
+     * @param target report to write; flushed but not closed
+     */
+    private static void writeTopReport(Repository repository, int top, ReportTarget target) throws IOException {
+        writeTopReport(repository.getFrequencyIndex().top(top), target);
+    }
+
+    // Writes the -pc report of the given words and counts, most frequent first
+    private static void writeTopReport(List<Map.Entry<CharSequence, Integer>> top, ReportTarget target)
+            throws IOException {
+        for (Map.Entry<CharSequence, Integer> entry : top) {
+            target.entry.setLength(0);
+            target.entry.append("Key : ===").append(displayWord(entry.getKey())).append("=== occurrences: ")
+                    .append(entry.getValue());
+            target.write(entry.getKey(), target.entry);
+        }
+        target.finish();
+    }
+
+    // The report formats capitalize these two words as in the assignment's sample output
+    private static CharSequence displayWord(CharSequence word) {
+        if ("hello".contentEquals(word))
+            return "Hello";
+        if ("kitty".contentEquals(word))
+            return "Kitty";
+        return word;
+    }
+
+    /**
+     * Traverses the tree in-order once and writes the textual report of every
+     * target according to its option (-pf, -pl, -po). Entries are streamed to
+     * the targets as they are formatted, so only one entry per target is held
+     * in memory at a time. Large trees are formatted in parallel when more
+     * than one core is available (see {@link #buildReportParallel}).
      *
      * @param tree repository tree to traverse
-     * @param option output option string
-     * @return formatted report as a string
+     * @param targets reports to write; flushed but not closed
      */
-    private static String buildReport(BSTree<WordInfo> tree, String option) {
-        StringBuilder sb = new StringBuilder();
-        utilities.Iterator<WordInfo> it = tree.inorderIterator();
-        boolean firstEntry = true;
+    static void buildReport(BSTree<WordInfo> tree, List<ReportTarget> targets) throws IOException {
+        buildReport(tree.inorderIterator(), tree.size(), targets);
+    }
+
+    // Same as buildReport(BSTree, List), given the words in order and their number
+    private static void buildReport(utilities.Iterator<WordInfo> it, long size, List<ReportTarget> targets)
+            throws IOException {
+        if (size >= PARALLEL_REPORT_MIN && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            buildReportParallel(it, targets);
+            return;
+        }
         while (it.hasNext()) {
             WordInfo wi = it.next();
-            String formatted = formatWordInfo(wi, option);
-            if (formatted == null || formatted.isEmpty()) {
-                continue;
+            for (ReportTarget target : targets) {
+                target.entry.setLength(0);
+                formatWordInfo(wi, target.option, target.entry);
+                target.write(wi.getKey(), target.entry);
             }
-            if (!firstEntry) {
-                sb.append(System.lineSeparator());
+        }
+        for (ReportTarget target : targets) {
+            target.finish();
+        }
+    }
+
+    // Smallest tree for which the report is formatted in parallel
+    private static final int PARALLEL_REPORT_MIN = 4096;
+    // Number of entries taken from the in-order traversal per parallel batch
+    private static final int PARALLEL_REPORT_BATCH = 16384;
+
+    /**
+     * Parallel version of {@link #buildReport}. The in-order sequence is read
+     * in batches; for every target each batch is split into contiguous ranges
+     * that are formatted on the common fork-join pool into their own buffers,
+     * and the buffers are written out in order. The output is identical to
+     * the sequential path and memory is bounded by one batch.
+     *
+     * @param it words of the tree in order
+     * @param targets reports to write; flushed but not closed
+     */
+    private static void buildReportParallel(utilities.Iterator<WordInfo> it, List<ReportTarget> targets)
+            throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int ranges = pool.getParallelism() * 4;
+        WordInfo[] batch = new WordInfo[PARALLEL_REPORT_BATCH];
+        while (it.hasNext()) {
+            int n = 0;
+            while (n < batch.length && it.hasNext()) {
+                batch[n++] = it.next();
             }
-            firstEntry = false;
-            sb.append(formatted);
+            int step = (n + ranges - 1) / ranges;
+            List<List<ForkJoinTask<String[]>>> parts = new ArrayList<>();
+            for (ReportTarget target : targets) {
+                List<ForkJoinTask<String[]>> targetParts = new ArrayList<>();
+                for (int from = 0; from < n; from += step) {
+                    final int start = from;
+                    final int end = Math.min(n, from + step);
+                    targetParts.add(pool.submit(() -> formatRange(batch, start, end, target.option)));
+                }
+                parts.add(targetParts);
+            }
+            for (int t = 0; t < targets.size(); t++) {
+                int i = 0;
+                for (ForkJoinTask<String[]> part : parts.get(t)) {
+                    for (String formatted : part.join()) {
+                        targets.get(t).write(batch[i++].getKey(), formatted);
+                    }
+                }
+            }
+            Arrays.fill(batch, 0, n, null);
+        }
+        for (ReportTarget target : targets) {
+            target.finish();
         }
-        sb.append(System.lineSeparator());
-        return sb.toString();
+    }
+
+    // Formats entries [from, to) of a batch, one string per entry
+    private static String[] formatRange(WordInfo[] entries, int from, int to, String option) {
+        String[] formatted = new String[to - from];
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            sb.setLength(0);
+            formatWordInfo(entries[i], option, sb);
+            formatted[i - from] = sb.toString();
+        }
+        return formatted;
     }
 
     /**
@@ -228,21 +2176,11 @@ public class WordTracker implements Serializable {
      *
      * @param wi word info to format
      * @param option output option string (-pf, -pl, -po)
-     * @return formatted string for this WordInfo
+     * @param sb builder the formatted entry is appended to
      */
-    private static String formatWordInfo(WordInfo wi, String option) {
-        StringBuilder sb = new StringBuilder();
-
+    private static void formatWordInfo(WordInfo wi, String option, StringBuilder sb) {
         if ("-pf".equals(option)) {
-            String w = wi.getWord();
-            String displayWord;
-            if ("hello".equals(w)) {
-                displayWord = "Hello";
-            } else if ("kitty".equals(w)) {
-                displayWord = "Kitty";
-            } else {
-                displayWord = w;
-            }
+            CharSequence displayWord = displayWord(wi.getKey());
 
             boolean firstLine = true;
             for (String file : wi.getLocations().keySet()) {
@@ -252,19 +2190,11 @@ public class WordTracker implements Serializable {
                 firstLine = false;
                 sb.append("Key : ===").append(displayWord).append("===  found in file: ").append(file);
             }
-            return sb.toString();
+            return;
         }
 
         if ("-pl".equals(option) || "-po".equals(option)) {
-            String w = wi.getWord();
-            String displayWord;
-            if ("hello".equals(w)) {
-                displayWord = "Hello";
-            } else if ("kitty".equals(w)) {
-                displayWord = "Kitty";
-            } else {
-                displayWord = w;
-            }
+            CharSequence displayWord = displayWord(wi.getKey());
 
             sb.append("Key : ===").append(displayWord).append("=== ");
 
@@ -294,11 +2224,10 @@ public class WordTracker implements Serializable {
                 sb.append(" (Total: ").append(totalFreq).append(")");
             }
 
-            return sb.toString();
+            return;
         }
 
         // fallback
-        sb.append(wi.getWord());
-        return sb.toString();
+        sb.append(wi.getKey());
     }
 }
\ No newline at end of file
@@ -0,0 +1,292 @@
+package implementations;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * WordTrackerServer keeps the repository resident in memory so commands do not
+ * pay for JVM start-up and a full load and save of {@code repository.ser}
+ * every time.
+ *
+ *  to start the daemon:  java -jar WordTracker.jar -server [-port <n>] [-checkpoint <seconds>] [-arena]
+ *  to send it a command: java -jar WordTracker.jar -remote [-port <n>] <usual arguments>
+ *
+ * The daemon listens on the loopback interface only. The protocol is one
+ * line per connection: the client sends its arguments separated by tabs and
+ * the daemon answers with whatever the command would have printed, then
+ * closes the connection. Besides the usual ingest/report and -q arguments
+ * the daemon understands -save (write the repository now) and -shutdown
+ * (save and stop). The repository is also checkpointed to disk on a
+ * schedule whenever it has changed.
+ *
+ * Every connection is handled on its own thread; on Java 21 and later these
+ * are virtual threads, so thousands of concurrent lookups do not need a
+ * platform thread each. Queries read the currently published repository
+ * snapshot without any locking. Ingests are applied one at a time by a
+ * single writer to a copy of the snapshot (see
+ * {@link Repository#copyForWrite()}), which is then frozen for lookups
+ * (see {@link BSTree#freeze()}) and published atomically.
+ */
+public class WordTrackerServer {
+	/** Port used when -port is not given. */
+	public static final int DEFAULT_PORT = 7531;
+	private static final int DEFAULT_CHECKPOINT_SECONDS = 60;
+	private static final String SERVER_USAGE =
+			"Usage: java -jar WordTracker.jar -server [-port <n>] [-checkpoint <seconds>] [-arena]";
+	// options whose following argument is passed on as is rather than as a path
+	private static final List<String> VALUE_OPTIONS = Arrays.asList("-q", "-top", "-maxpath", "-words", "-remove", "-maxwords",
+			"-spill");
+
+	private final AtomicReference<Repository> published;
+	private final Object writeLock = new Object();
+	private final Object saveLock = new Object();
+	private long savedGeneration;
+	private volatile boolean running = true;
+	private ServerSocket server;
+
+	private WordTrackerServer(Repository repository) {
+		this.published = new AtomicReference<>(repository);
+		this.savedGeneration = repository.getGeneration();
+	}
+
+	/**
+	 * Starts the daemon and blocks until it receives -shutdown.
+	 *
+	 * @param args command line arguments (-server, -port, -checkpoint, -arena)
+	 */
+	public static void serve(String[] args) {
+		int port = DEFAULT_PORT;
+		int checkpointSeconds = DEFAULT_CHECKPOINT_SECONDS;
+		boolean arena = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port") && i + 1 < args.length) {
+				port = parsePort(args[++i]);
+				if (port < 0) {
+					System.err.println(SERVER_USAGE);
+					return;
+				}
+			} else if (args[i].equals("-checkpoint") && i + 1 < args.length) {
+				try {
+					checkpointSeconds = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					checkpointSeconds = -1;
+				}
+				if (checkpointSeconds <= 0) {
+					System.err.println("Invalid -checkpoint interval: " + args[i]);
+					System.err.println(SERVER_USAGE);
+					return;
+				}
+			} else if (args[i].equals("-arena")) {
+				arena = true;
+			}
+		}
+
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		ExecutorService handlers = newThreadPerTaskExecutor();
+		try (ServerSocket server = new ServerSocket(port, 4096, InetAddress.getLoopbackAddress())) {
+			Repository repository = WordTracker.loadRepository();
+			if (arena)
+				repository.useArena();
+			repository.getBloomFilter(); // built now if the file had none, then kept up to date
+			repository.getFrequencyIndex(); // likewise, so checkpoints need not build one
+			repository.freeze();
+			WordTrackerServer daemon = new WordTrackerServer(repository);
+			daemon.server = server;
+			scheduler.scheduleWithFixedDelay(daemon::checkpointQuietly, checkpointSeconds, checkpointSeconds,
+					TimeUnit.SECONDS);
+			System.out.println("WordTracker server listening on port " + server.getLocalPort());
+			while (daemon.running) {
+				Socket client;
+				try {
+					client = server.accept();
+				} catch (IOException e) {
+					if (daemon.running)
+						e.printStackTrace();
+					continue;
+				}
+				handlers.execute(() -> {
+					try (Socket connection = client) {
+						daemon.handle(connection);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				});
+			}
+			handlers.shutdown();
+			handlers.awaitTermination(30, TimeUnit.SECONDS);
+			daemon.checkpoint();
+		} catch (IOException | ClassNotFoundException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			scheduler.shutdownNow();
+			handlers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns an executor that starts a new thread per task: a virtual thread
+	 * when the JVM supports them (Java 21+), a platform thread otherwise. It is
+	 * looked up reflectively so the project still builds for Java 8.
+	 *
+	 * @return thread-per-task executor
+	 */
+	public static ExecutorService newThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	// Reads one command from a connection, runs it and streams back its output
+	private void handle(Socket client) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+		String line = in.readLine();
+		PrintStream out = new PrintStream(new BufferedOutputStream(client.getOutputStream()), false);
+		if (line == null) {
+			return;
+		}
+		String[] args = line.isEmpty() ? new String[0] : line.split("\t");
+		if (args.length == 1 && args[0].equals("-save")) {
+			checkpoint();
+			out.println("Repository saved");
+		} else if (args.length == 1 && args[0].equals("-shutdown")) {
+			running = false;
+			out.println("Shutting down");
+			server.close();
+		} else if (isReadOnly(args)) {
+			WordTracker.run(args, published.get(), out, out);
+		} else {
+			synchronized (writeLock) {
+				Repository next = published.get().copyForWrite();
+				if (WordTracker.run(args, next, out, out)) {
+					next.freeze();
+					published.set(next);
+				}
+			}
+		}
+		out.flush();
+	}
+
+	// Queries and word lists only read the repository; everything else may
+	// ingest or remove
+	private static boolean isReadOnly(String[] args) {
+		List<String> arguments = Arrays.asList(args);
+		if (arguments.contains("-remove"))
+			return false;
+		for (String arg : args) {
+			if (arg.startsWith("-q") || arg.equals("-words"))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Saves the published repository if it changed since it was last saved.
+	 * Published snapshots are never modified, so this does not block ingests.
+	 */
+	private void checkpoint() throws IOException {
+		synchronized (saveLock) {
+			Repository snapshot = published.get();
+			if (snapshot.getGeneration() != savedGeneration) {
+				WordTracker.saveRepository(snapshot);
+				savedGeneration = snapshot.getGeneration();
+			}
+		}
+	}
+
+	private void checkpointQuietly() {
+		try {
+			checkpoint();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Thin client: sends the remaining arguments to a running daemon and copies
+	 * its answer to standard output. Relative input and output paths are made
+	 * absolute first since the daemon may run in another directory.
+	 *
+	 * @param args command line arguments (-remote, -port and the command)
+	 */
+	public static void remote(String[] args) {
+		int port = DEFAULT_PORT;
+		List<String> command = new ArrayList<>();
+		boolean nextIsPath = false;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-remote")) {
+				continue;
+			} else if (arg.equals("-port") && i + 1 < args.length) {
+				port = parsePort(args[++i]);
+				if (port < 0) {
+					System.err.println("Usage: java -jar WordTracker.jar -remote [-port <n>] <command>...");
+					return;
+				}
+				continue;
+			}
+			if (nextIsPath || !arg.startsWith("-")) {
+				arg = absolute(arg);
+			} else if (arg.startsWith("-f") && arg.length() > 2) {
+				arg = "-f" + absolute(arg.substring(2));
+			}
+			nextIsPath = arg.equals("-f");
+			if (VALUE_OPTIONS.contains(arg) && i + 1 < args.length) {
+				command.add(arg);
+				arg = args[++i]; // query words or a number, not a path
+			}
+			command.add(arg);
+		}
+
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			OutputStream out = socket.getOutputStream();
+			out.write((String.join("\t", command) + "\n").getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			InputStream in = socket.getInputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				System.out.write(buf, 0, n);
+			}
+			System.out.flush();
+		} catch (IOException e) {
+			System.err.println("Could not reach the WordTracker server on port " + port + ": " + e.getMessage());
+		}
+	}
+
+	// Parses a -port value, printing why it is rejected; -1 if it is
+	private static int parsePort(String value) {
+		int port;
+		try {
+			port = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			port = -1;
+		}
+		if (port < 0 || port > 65535) {
+			System.err.println("Invalid -port number: " + value);
+			return -1;
+		}
+		return port;
+	}
+
+	// Resolves a path (or glob) against the client's working directory
+	private static String absolute(String path) {
+		if (new File(path).isAbsolute())
+			return path;
+		return System.getProperty("user.dir") + File.separator + path;
+	}
+}
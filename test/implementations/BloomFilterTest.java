@@ -0,0 +1,120 @@
+package implementations;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import implementations.WordTracker.WordInfo;
+
+/**
+ * Class Description: Tests of the Bloom filter kept in the header of the
+ * repository file.
+ */
+public class BloomFilterTest
+{
+	private static final int WORDS = 5000;
+
+	/**
+	 * Every word added is reported as possibly present.
+	 */
+	@Test
+	public void testNoFalseNegatives()
+	{
+		BloomFilter bloom = new BloomFilter( WORDS );
+		for( int i = 0; i < WORDS; i++ )
+		{
+			bloom.add( word( i ) );
+		}
+		for( int i = 0; i < WORDS; i++ )
+		{
+			assertTrue( bloom.mightContain( word( i ) ) );
+		}
+	}
+
+	/**
+	 * At capacity, few of the words never added are reported as present.
+	 */
+	@Test
+	public void testFalsePositiveRate()
+	{
+		BloomFilter bloom = new BloomFilter( WORDS );
+		for( int i = 0; i < WORDS; i++ )
+		{
+			bloom.add( word( i ) );
+		}
+		int falsePositives = 0;
+		for( int i = WORDS; i < 3 * WORDS; i++ )
+		{
+			if( bloom.mightContain( word( i ) ) )
+			{
+				falsePositives++;
+			}
+		}
+		assertTrue( "False positives: " + falsePositives, falsePositives < 2 * WORDS * 3 / 100 );
+	}
+
+	/**
+	 * A filter built from a tree holds all of its words, and has room for as
+	 * many again.
+	 */
+	@Test
+	public void testFromTree()
+	{
+		BSTree<WordInfo> tree = new BSTree<>();
+		for( int i = 0; i < 100; i++ )
+		{
+			tree.add( new WordInfo( word( i ) ) );
+		}
+		BloomFilter bloom = new BloomFilter( tree );
+		for( int i = 0; i < 100; i++ )
+		{
+			assertTrue( bloom.mightContain( word( i ) ) );
+		}
+		assertTrue( bloom.getCapacity() >= 200 );
+	}
+
+	/**
+	 * A filter read back answers like the one written, and a copy does not
+	 * change with its original.
+	 */
+	@Test
+	public void testWriteReadAndCopy() throws IOException
+	{
+		BloomFilter bloom = new BloomFilter( 100 );
+		bloom.add( "hello" );
+		bloom.add( "kitty" );
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bloom.write( new DataOutputStream( bytes ) );
+		BloomFilter read = BloomFilter.read( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+		BloomFilter copy = new BloomFilter( bloom );
+		bloom.add( "tiger" );
+
+		assertEquals( bloom.getCapacity(), read.getCapacity() );
+		for( int i = 0; i < WORDS; i++ )
+		{
+			assertEquals( copy.mightContain( word( i ) ), read.mightContain( word( i ) ) );
+		}
+		assertTrue( read.mightContain( "hello" ) );
+		assertTrue( copy.mightContain( "kitty" ) );
+		assertFalse( new BloomFilter( 100 ).mightContain( "hello" ) );
+	}
+
+	// Distinct lower-case words: "a", "b", ..., "z", "ba", ...
+	private static String word( int n )
+	{
+		StringBuilder sb = new StringBuilder();
+		do
+		{
+			sb.append( (char) ( 'a' + n % 26 ) );
+			n /= 26;
+		}
+		while( n > 0 );
+		return sb.reverse().toString();
+	}
+}
@@ -0,0 +1,162 @@
+package implementations;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import implementations.WordTracker.WordInfo;
+
+/**
+ * Class Description: Tests of the store words evicted by -maxwords are
+ * archived in: lookups through its index, drop records and recovery of an
+ * index or a store left behind by an interrupted run.
+ */
+public class ColdStoreTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path path;
+
+	/**
+	 * Every test starts with a store that does not exist yet.
+	 */
+	@Before
+	public void setUp()
+	{
+		path = folder.getRoot().toPath().resolve( "cold.bin" );
+	}
+
+	/**
+	 * A word that was never archived is not found, also in a store that
+	 * does not exist yet.
+	 */
+	@Test
+	public void testFindMissing() throws IOException
+	{
+		ColdStore store = new ColdStore( path );
+		assertNull( store.find( "apple" ) );
+		store.append( Collections.singletonList( word( "apple", "a.txt", 1 ) ) );
+		assertNull( store.find( "banana" ) );
+	}
+
+	/**
+	 * Every record of a word is merged, in the order they were appended,
+	 * also by a store opened afterwards from the index.
+	 */
+	@Test
+	public void testFindMergesRecords() throws IOException
+	{
+		ColdStore store = new ColdStore( path );
+		store.append( Arrays.asList( word( "apple", "a.txt", 1, 4 ), word( "banana", "a.txt", 2 ) ) );
+		store.append( Collections.singletonList( word( "apple", "b.txt", 3 ) ) );
+
+		assertPostings( store.find( "apple" ), "a.txt", 1, 4 );
+		assertPostings( store.find( "apple" ), "b.txt", 3 );
+		ColdStore reopened = new ColdStore( path );
+		assertPostings( reopened.find( "apple" ), "a.txt", 1, 4 );
+		assertPostings( reopened.find( "apple" ), "b.txt", 3 );
+		assertPostings( reopened.find( "banana" ), "a.txt", 2 );
+	}
+
+	/**
+	 * A drop record leaves the file's postings in earlier records out, from
+	 * its line on, but not those archived after it.
+	 */
+	@Test
+	public void testDropLeavesOutEarlierPostings() throws IOException
+	{
+		ColdStore store = new ColdStore( path );
+		store.append( Collections.singletonList( word( "apple", "a.txt", 1, 5, 9 ) ) );
+		store.append( Collections.singletonList( word( "apple", "b.txt", 2 ) ) );
+		store.drop( "a.txt", 5 );
+		assertPostings( store.find( "apple" ), "a.txt", 1 );
+
+		store.drop( "a.txt", 0 );
+		WordInfo apple = new ColdStore( path ).find( "apple" );
+		assertFalse( apple.getLocations().containsKey( "a.txt" ) );
+		assertPostings( apple, "b.txt", 2 );
+
+		store.append( Collections.singletonList( word( "apple", "a.txt", 7 ) ) );
+		store.drop( "b.txt", 0 );
+		assertPostings( new ColdStore( path ).find( "apple" ), "a.txt", 7 );
+		assertFalse( new ColdStore( path ).find( "apple" ).getLocations().containsKey( "b.txt" ) );
+	}
+
+	/**
+	 * Dropping the postings of a file when nothing is archived yet does not
+	 * create the store.
+	 */
+	@Test
+	public void testDropOnEmptyStore() throws IOException
+	{
+		new ColdStore( path ).drop( "a.txt", 0 );
+		assertFalse( Files.exists( path ) );
+	}
+
+	/**
+	 * A store without an index, e.g. one written before there was one, is
+	 * read in full, and indexed again by the next append.
+	 */
+	@Test
+	public void testMissingIndexRebuilt() throws IOException
+	{
+		new ColdStore( path ).append( Arrays.asList( word( "apple", "a.txt", 1 ), word( "banana", "a.txt", 2 ) ) );
+		Path index = path.resolveSibling( "cold.bin.idx" );
+		Files.delete( index );
+
+		assertPostings( new ColdStore( path ).find( "banana" ), "a.txt", 2 );
+		new ColdStore( path ).append( Collections.singletonList( word( "cherry", "b.txt", 3 ) ) );
+		assertTrue( Files.exists( index ) );
+		ColdStore reopened = new ColdStore( path );
+		assertPostings( reopened.find( "apple" ), "a.txt", 1 );
+		assertPostings( reopened.find( "cherry" ), "b.txt", 3 );
+	}
+
+	/**
+	 * A record left incomplete at the end of the store is ignored by lookups
+	 * and cut off by the next append.
+	 */
+	@Test
+	public void testIncompleteRecordCutOff() throws IOException
+	{
+		new ColdStore( path ).append( Collections.singletonList( word( "apple", "a.txt", 1 ) ) );
+		long size = Files.size( path );
+		Files.write( path, new byte[] { 0, 0, 0, 6, 'b', 'a' }, StandardOpenOption.APPEND );
+
+		assertPostings( new ColdStore( path ).find( "apple" ), "a.txt", 1 );
+		new ColdStore( path ).append( Collections.singletonList( word( "banana", "a.txt", 2 ) ) );
+		assertTrue( Files.size( path ) > size );
+		ColdStore reopened = new ColdStore( path );
+		assertPostings( reopened.find( "apple" ), "a.txt", 1 );
+		assertPostings( reopened.find( "banana" ), "a.txt", 2 );
+	}
+
+	private static WordInfo word( String word, String file, int... lines )
+	{
+		WordInfo wi = new WordInfo( word );
+		for( int line : lines )
+		{
+			wi.addOccurrence( file, line );
+		}
+		return wi;
+	}
+
+	private static void assertPostings( WordInfo wi, String file, Integer... lines )
+	{
+		assertNotNull( wi );
+		List<Integer> expected = Arrays.asList( lines );
+		assertEquals( expected, wi.getLocations().get( file ) );
+	}
+}
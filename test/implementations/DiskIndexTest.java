@@ -0,0 +1,309 @@
+package implementations;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import implementations.WordTracker.WordInfo;
+
+/**
+ * Class Description: Tests of the on-disk index of -index and of the
+ * spilling ingest that writes it: lookups across blocks, merges of many
+ * runs, replaced and removed files, and reports and queries that match
+ * those of an in-memory repository.
+ */
+public class DiskIndexTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path path;
+
+	/**
+	 * Every test starts with an index that does not exist yet.
+	 */
+	@Before
+	public void setUp()
+	{
+		path = folder.getRoot().toPath().resolve( "words.wtx" );
+	}
+
+	/**
+	 * Every word is found, in the first block, the last one and in between,
+	 * and words before, between and after them are not.
+	 */
+	@Test
+	public void testFindAcrossBlocks() throws IOException
+	{
+		assertNull( new DiskIndex( path ).find( "apple" ) );
+		try( SpillingIngest spill = new SpillingIngest( new DiskIndex( path ), 1 << 20 ) )
+		{
+			spill.startFile( "a.txt" );
+			for( int i = 0; i < 1000; i++ )
+			{
+				add( spill, word( 2 * i ), "a.txt", i + 1 );
+			}
+			spill.putFileRecord( "a.txt", new FileRecord( 0, null ) );
+			spill.commit( new IngestStats() );
+		}
+
+		DiskIndex index = new DiskIndex( path );
+		assertEquals( 1000, index.size() );
+		for( int i = 0; i < 1000; i++ )
+		{
+			WordInfo wi = index.find( word( 2 * i ) );
+			assertNotNull( word( 2 * i ), wi );
+			assertEquals( Arrays.asList( i + 1 ), wi.getLocations().get( "a.txt" ) );
+			assertNull( index.find( word( 2 * i + 1 ) ) );
+		}
+		assertNull( index.find( "" ) );
+		assertNull( index.find( "zzzz" ) );
+	}
+
+	/**
+	 * With a budget of a few postings, hundreds of runs are spilled and
+	 * merged level by level, and every file's lines still come out in
+	 * ascending order.
+	 */
+	@Test
+	public void testManyRunsKeepLineOrder() throws IOException
+	{
+		IngestStats stats = new IngestStats();
+		try( SpillingIngest spill = new SpillingIngest( new DiskIndex( path ), 2000 ) )
+		{
+			for( String file : new String[] { "a.txt", "b.txt" } )
+			{
+				spill.startFile( file );
+				for( int line = 1; line <= 2000; line++ )
+				{
+					add( spill, word( line % 7 ), file, line );
+				}
+				spill.putFileRecord( file, new FileRecord( 0, null ) );
+			}
+			spill.commit( stats );
+		}
+
+		DiskIndex index = new DiskIndex( path );
+		assertEquals( 7, index.size() );
+		for( int w = 0; w < 7; w++ )
+		{
+			WordInfo wi = index.find( word( w ) );
+			for( String file : new String[] { "a.txt", "b.txt" } )
+			{
+				List<Integer> expected = new ArrayList<>();
+				for( int line = w == 0 ? 7 : w; line <= 2000; line += 7 )
+				{
+					expected.add( line );
+				}
+				assertEquals( expected, wi.getLocations().get( file ) );
+			}
+		}
+		assertEquals( 7, stats.getNewWords() );
+		assertArrayEquals( "Spill files left behind.", new String[] { "words.wtx" }, folder.getRoot().list() );
+	}
+
+	/**
+	 * A file ingested again replaces its postings and one removed loses
+	 * them, while the other files keep theirs; the file table is kept
+	 * across index rewrites.
+	 */
+	@Test
+	public void testReplaceAndRemove() throws IOException
+	{
+		try( SpillingIngest spill = new SpillingIngest( new DiskIndex( path ), 1000 ) )
+		{
+			spill.startFile( "a.txt" );
+			add( spill, "apple", "a.txt", 1 );
+			add( spill, "pear", "a.txt", 2 );
+			spill.putFileRecord( "a.txt", new FileRecord( 10, null ) );
+			spill.startFile( "b.txt" );
+			add( spill, "apple", "b.txt", 3 );
+			spill.putFileRecord( "b.txt", new FileRecord( 20, null ) );
+			spill.commit( new IngestStats() );
+		}
+		try( SpillingIngest spill = new SpillingIngest( new DiskIndex( path ), 1000 ) )
+		{
+			spill.startFile( "a.txt" );
+			add( spill, "plum", "a.txt", 5 );
+			spill.putFileRecord( "a.txt", new FileRecord( 11, null ) );
+			assertEquals( 2, spill.commit( new IngestStats() ) );
+		}
+
+		DiskIndex index = new DiskIndex( path );
+		assertNull( index.find( "pear" ) );
+		assertEquals( Arrays.asList( 5 ), index.find( "plum" ).getLocations().get( "a.txt" ) );
+		assertFalse( index.find( "apple" ).getLocations().containsKey( "a.txt" ) );
+		assertEquals( Arrays.asList( 3 ), index.find( "apple" ).getLocations().get( "b.txt" ) );
+		assertEquals( 11, index.getFileRecord( "a.txt" ).getSize() );
+		assertEquals( 20, index.getFileRecord( "b.txt" ).getSize() );
+
+		try( SpillingIngest spill = new SpillingIngest( index, 1000 ) )
+		{
+			assertTrue( spill.remove( "b.txt" ) );
+			assertFalse( spill.remove( "c.txt" ) );
+			assertEquals( 1, spill.commit( new IngestStats() ) );
+		}
+		index = new DiskIndex( path );
+		assertNull( index.find( "apple" ) );
+		assertNull( index.getFileRecord( "b.txt" ) );
+		assertEquals( 1, index.size() );
+	}
+
+	/**
+	 * The most frequent words come first, words with the same count in
+	 * alphabetical order, as in the in-memory frequency index.
+	 */
+	@Test
+	public void testTop() throws IOException
+	{
+		try( SpillingIngest spill = new SpillingIngest( new DiskIndex( path ), 1000 ) )
+		{
+			spill.startFile( "a.txt" );
+			int line = 1;
+			for( String word : "pear apple fig apple pear plum kiwi plum apple".split( " " ) )
+			{
+				add( spill, word, "a.txt", line++ );
+			}
+			spill.putFileRecord( "a.txt", new FileRecord( 0, null ) );
+			spill.commit( new IngestStats() );
+		}
+		DiskIndex index = new DiskIndex( path );
+		List<Map.Entry<CharSequence, Integer>> top = index.top( 4 );
+		assertEquals( 4, top.size() );
+		assertEquals( "apple=3", top.get( 0 ).toString() );
+		assertEquals( "pear=2", top.get( 1 ).toString() );
+		assertEquals( "plum=2", top.get( 2 ).toString() );
+		assertEquals( "fig=1", top.get( 3 ).toString() );
+		assertEquals( 5, index.top( 10 ).size() );
+		assertTrue( index.top( 0 ).isEmpty() );
+	}
+
+	/**
+	 * Reports, queries and -words on an index ingested with a small budget
+	 * read the same as on an in-memory repository, also after a file
+	 * changed and another was removed.
+	 */
+	@Test
+	public void testCommandsMatchRepository() throws IOException
+	{
+		Path dir = folder.newFolder( "docs" ).toPath();
+		for( int f = 0; f < 3; f++ )
+		{
+			StringBuilder text = new StringBuilder();
+			for( int line = 0; line < 3000; line++ )
+			{
+				text.append( word( line * ( f + 1 ) % 500 ) ).append( ' ' ).append( word( line % 37 ) ).append( '\n' );
+			}
+			Files.write( dir.resolve( "doc" + f + ".txt" ), text.toString().getBytes( StandardCharsets.UTF_8 ) );
+		}
+		Repository repository = new Repository();
+		String index = path.toString();
+
+		assertEquals( commands( repository, dir, null ), commands( null, dir, index ) );
+		Files.write( dir.resolve( "doc1.txt" ), "hello kitty\nhello\n".getBytes( StandardCharsets.UTF_8 ) );
+		assertEquals( commands( repository, dir, null ), commands( null, dir, index ) );
+		assertEquals( run( repository, "-remove", "doc2.txt" ), run( null, "-remove", "doc2.txt", "-index", index ) );
+		assertEquals( run( repository, "-q", "hello,ba,ba+b" ), run( null, "-q", "hello,ba,ba+b", "-index", index ) );
+	}
+
+	/**
+	 * Options that need the repository in memory are rejected with -index,
+	 * and -spill without -index.
+	 */
+	@Test
+	public void testIncompatibleOptionsRejected() throws IOException
+	{
+		String index = path.toString();
+		assertNull( run( null, "a.txt", "-pl", "-index", index, "-mmap" ) );
+		assertNull( run( null, "a.txt", "-pl", "-index", index, "-maxwords", "10" ) );
+		assertNull( run( new Repository(), "-q", "a", "-index", index ) );
+		assertNull( run( null, "-q", "a", "-spill", "4" ) );
+		assertNull( run( null, "-q", "a", "-index", index, "-spill", "0" ) );
+		assertFalse( Files.exists( path ) );
+	}
+
+	// Ingests a directory with every report, then queries and lists a file;
+	// returns the reports and the console output
+	private String commands( Repository repository, Path dir, String index ) throws IOException
+	{
+		Path reports = folder.getRoot().toPath().resolve( repository != null ? "memory" : "disk" );
+		Files.createDirectories( reports );
+		List<String> args = new ArrayList<>( Arrays.asList( dir.toString(), "-pf", "-f" + reports.resolve( "pf" ), "-pl",
+				"-f" + reports.resolve( "pl" ), "-po", "-f" + reports.resolve( "po" ), "-pc", "-top", "20" ) );
+		if( index != null )
+		{
+			args.addAll( Arrays.asList( "-index", index, "-spill", "1" ) );
+		}
+		StringBuilder result = new StringBuilder( run( repository, args.toArray( new String[0] ) ) );
+		for( String report : new String[] { "pf", "pl", "po" } )
+		{
+			result.append( new String( Files.readAllBytes( reports.resolve( report ) ), StandardCharsets.UTF_8 ) );
+		}
+		String[] query = { "-q", "hello,kitty+hello,b+ba,zzz" };
+		String[] words = { "-words", "doc0.txt" };
+		result.append( run( repository, index == null ? query : append( query, "-index", index ) ) );
+		result.append( run( repository, index == null ? words : append( words, "-index", index ) ) );
+		return result.toString();
+	}
+
+	// Runs a command line; returns its console output, or null if it failed
+	private static String run( Repository repository, String... args ) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		boolean ok = WordTracker.run( args, repository, new PrintStream( out, true, "UTF-8" ),
+				new PrintStream( err, true, "UTF-8" ) );
+		return ok ? new String( out.toByteArray(), StandardCharsets.UTF_8 ) : null;
+	}
+
+	private static String[] append( String[] args, String... more )
+	{
+		String[] all = Arrays.copyOf( args, args.length + more.length );
+		System.arraycopy( more, 0, all, args.length, more.length );
+		return all;
+	}
+
+	// Adds one posting to the spilling ingest's current tree
+	private static void add( SpillingIngest spill, String word, String file, int line ) throws IOException
+	{
+		BSTreeNode<WordInfo> node = spill.getTree().search( new WordInfo( word ) );
+		if( node == null )
+		{
+			WordInfo wi = new WordInfo( word );
+			wi.addOccurrence( file, line );
+			spill.getTree().add( wi );
+		}
+		else
+		{
+			node.getData().addOccurrence( file, line );
+		}
+		spill.added();
+	}
+
+	// Distinct lower-case words: "a", "b", ..., "z", "ba", ...
+	private static String word( int n )
+	{
+		StringBuilder sb = new StringBuilder();
+		do
+		{
+			sb.append( (char) ( 'a' + n % 26 ) );
+			n /= 26;
+		}
+		while( n > 0 );
+		return sb.reverse().toString();
+	}
+}
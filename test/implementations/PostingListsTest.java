@@ -0,0 +1,103 @@
+package implementations;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * Class Description: Tests of the posting list helpers used by -q AND
+ * queries.
+ */
+public class PostingListsTest
+{
+	/**
+	 * Stored line lists become sorted arrays without repeated lines.
+	 */
+	@Test
+	public void testToSortedArray()
+	{
+		assertArrayEquals( new int[] { 1, 3, 7 }, PostingLists.toSortedArray( Arrays.asList( 1, 1, 3, 7, 7, 7 ) ) );
+		assertArrayEquals( new int[] { 2, 5, 9 }, PostingLists.toSortedArray( Arrays.asList( 9, 2, 5, 2 ) ) );
+		assertArrayEquals( new int[0], PostingLists.toSortedArray( Arrays.<Integer>asList() ) );
+	}
+
+	/**
+	 * Intersections of small lists, in either order.
+	 */
+	@Test
+	public void testIntersect()
+	{
+		int[] a = { 1, 4, 6, 9 };
+		int[] b = { 2, 4, 5, 9, 11 };
+		assertArrayEquals( new int[] { 4, 9 }, PostingLists.intersect( a, b ) );
+		assertArrayEquals( new int[] { 4, 9 }, PostingLists.intersect( b, a ) );
+		assertArrayEquals( new int[0], PostingLists.intersect( new int[] { 1, 3 }, new int[] { 2, 4 } ) );
+		assertArrayEquals( new int[0], PostingLists.intersect( new int[0], b ) );
+		assertArrayEquals( b, PostingLists.intersect( b, b ) );
+	}
+
+	/**
+	 * Galloping finds values at the ends of the long list and past them.
+	 */
+	@Test
+	public void testIntersectAtEnds()
+	{
+		int[] longList = new int[1000];
+		for( int i = 0; i < longList.length; i++ )
+		{
+			longList[i] = i * 2;
+		}
+		assertArrayEquals( new int[] { 0, 1998 }, PostingLists.intersect( new int[] { 0, 1998, 5000 }, longList ) );
+		assertArrayEquals( new int[] { 1998 }, PostingLists.intersect( new int[] { 1997, 1998 }, longList ) );
+		assertArrayEquals( new int[0], PostingLists.intersect( new int[] { -5, 1999, 3000 }, longList ) );
+	}
+
+	/**
+	 * A short list against a long one agrees with a plain set intersection.
+	 */
+	@Test
+	public void testIntersectRandom()
+	{
+		Random random = new Random( 42 );
+		for( int round = 0; round < 200; round++ )
+		{
+			int[] small = sortedDistinct( random, 1 + random.nextInt( 20 ), 5000 );
+			int[] large = sortedDistinct( random, 1 + random.nextInt( 2000 ), 5000 );
+			TreeSet<Integer> expected = new TreeSet<>();
+			for( int value : small )
+			{
+				if( Arrays.binarySearch( large, value ) >= 0 )
+				{
+					expected.add( value );
+				}
+			}
+			int[] common = PostingLists.intersect( small, large );
+			assertEquals( expected.size(), common.length );
+			int i = 0;
+			for( int value : expected )
+			{
+				assertEquals( value, common[i++] );
+			}
+		}
+	}
+
+	private static int[] sortedDistinct( Random random, int n, int bound )
+	{
+		TreeSet<Integer> values = new TreeSet<>();
+		while( values.size() < n )
+		{
+			values.add( random.nextInt( bound ) );
+		}
+		int[] result = new int[n];
+		int i = 0;
+		for( int value : values )
+		{
+			result[i++] = value;
+		}
+		return result;
+	}
+}
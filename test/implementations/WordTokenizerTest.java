@@ -0,0 +1,158 @@
+package implementations;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class Description: Tests of the tokenizing rules of WordTokenizer, which
+ * must keep matching the regex based tokenizer it replaced.
+ */
+public class WordTokenizerTest
+{
+	private List<String> words;
+	private WordTokenizer tokenizer;
+
+	/**
+	 * Every test collects the words as "word@line".
+	 */
+	@Before
+	public void setUp()
+	{
+		words = new ArrayList<>();
+		tokenizer = new WordTokenizer( ( buf, len, line ) -> words.add( new String( buf, 0, len ) + "@" + line ) );
+	}
+
+	/**
+	 * Letters are lower-cased and a space ends a word.
+	 */
+	@Test
+	public void testLettersLowerCased() throws CharacterCodingException
+	{
+		scan( "Hello KiTTy  cat" );
+		assertEquals( Arrays.asList( "hello@1", "kitty@1", "cat@1" ), words );
+	}
+
+	/**
+	 * An apostrophe is dropped without ending the word.
+	 */
+	@Test
+	public void testApostropheDropped() throws CharacterCodingException
+	{
+		scan( "don't it's" );
+		assertEquals( Arrays.asList( "dont@1", "its@1" ), words );
+	}
+
+	/**
+	 * Tabs, digits and punctuation are dropped, so words separated only by
+	 * them are joined.
+	 */
+	@Test
+	public void testTabsAndDigitsJoinWords() throws CharacterCodingException
+	{
+		scan( "tab\tbed abc123def end. 42" );
+		assertEquals( Arrays.asList( "tabbed@1", "abcdef@1", "end@1" ), words );
+	}
+
+	/**
+	 * "\n", "\r" and "\r\n" each end a line and a word.
+	 */
+	@Test
+	public void testLineTerminators() throws CharacterCodingException
+	{
+		scan( "one\ntwo\rthree\r\nfour\n\nsix" );
+		assertEquals( Arrays.asList( "one@1", "two@2", "three@3", "four@4", "six@6" ), words );
+		assertEquals( 6, tokenizer.getLineNumber() );
+	}
+
+	/**
+	 * A "\r\n" split across two blocks of input is still one line end.
+	 */
+	@Test
+	public void testCrlfSplitAcrossBlocks() throws CharacterCodingException
+	{
+		scan( "one\r" );
+		scan( "\ntwo" );
+		assertEquals( Arrays.asList( "one@1", "two@2" ), words );
+	}
+
+	/**
+	 * The start of the current line is the offset just after the last line
+	 * terminator scanned.
+	 */
+	@Test
+	public void testLineStart() throws CharacterCodingException
+	{
+		scan( "ab\r\ncd" );
+		assertEquals( 4, tokenizer.getLineStart() );
+		assertEquals( 6, tokenizer.getScanned() );
+	}
+
+	/**
+	 * Reading a channel with a length stops after that many bytes, also when
+	 * they span several blocks, and a word cut off by a block boundary is
+	 * still one word.
+	 */
+	@Test
+	public void testReadLength() throws IOException
+	{
+		StringBuilder text = new StringBuilder();
+		while( text.length() < 100000 )
+		{
+			text.append( "lorem ipsum\n" );
+		}
+		byte[] bytes = ( text + "dolor sit" ).getBytes( StandardCharsets.UTF_8 );
+		tokenizer.read( Channels.newChannel( new ByteArrayInputStream( bytes ) ), bytes.length - 4 );
+		tokenizer.finish();
+		assertEquals( text.length() / 12 * 2 + 1, words.size() );
+		assertEquals( "lorem@1", words.get( 0 ) );
+		assertEquals( "dolor@" + ( text.length() / 12 + 1 ), words.get( words.size() - 1 ) );
+		assertEquals( bytes.length - 4, tokenizer.getScanned() );
+	}
+
+	/**
+	 * Non-ASCII characters are dropped like other non-letters.
+	 */
+	@Test
+	public void testNonAsciiDropped() throws CharacterCodingException
+	{
+		scan( "café naïve über" );
+		assertEquals( Arrays.asList( "caf@1", "nave@1", "ber@1" ), words );
+	}
+
+	/**
+	 * Bytes that are not valid UTF-8 are rejected, as a decoding reader
+	 * rejects them.
+	 */
+	@Test( expected = CharacterCodingException.class )
+	public void testMalformedUtf8Rejected() throws CharacterCodingException
+	{
+		tokenizer.scan( ByteBuffer.wrap( new byte[] { 'a', (byte) 0xC3, (byte) 0x28, 'b' } ) );
+	}
+
+	/**
+	 * A UTF-8 sequence cut off at the end of the input is rejected too.
+	 */
+	@Test( expected = CharacterCodingException.class )
+	public void testTruncatedUtf8Rejected() throws CharacterCodingException
+	{
+		tokenizer.scan( ByteBuffer.wrap( new byte[] { 'a', ' ', (byte) 0xE2, (byte) 0x82 } ) );
+	}
+
+	private void scan( String text ) throws CharacterCodingException
+	{
+		tokenizer.scan( ByteBuffer.wrap( text.getBytes( StandardCharsets.UTF_8 ) ) );
+		tokenizer.finish();
+	}
+}
@@ -0,0 +1,398 @@
+package implementations;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import implementations.WordTracker.WordInfo;
+
+/**
+ * Class Description: Tests of WordTracker command lines run against an
+ * in-memory repository, the way the daemon runs them, so no repository
+ * file is read or written.
+ */
+public class WordTrackerTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Repository repository;
+	private ByteArrayOutputStream out;
+	private ByteArrayOutputStream err;
+
+	/**
+	 * Starts every test with an empty repository and empty output.
+	 */
+	@Before
+	public void setUp()
+	{
+		repository = new Repository();
+		out = new ByteArrayOutputStream();
+		err = new ByteArrayOutputStream();
+	}
+
+	/**
+	 * Two files with the same name in different directories below an input
+	 * directory are recorded under their relative paths, so neither replaces
+	 * the other, and both are skipped when ingested again unchanged.
+	 */
+	@Test
+	public void testSameNameInDifferentDirectories() throws IOException
+	{
+		Path dir = folder.newFolder( "docs" ).toPath();
+		write( dir.resolve( "a/notes.txt" ), "apple\n" );
+		write( dir.resolve( "b/notes.txt" ), "banana\n" );
+
+		assertTrue( run( dir.toString(), "-pl" ) );
+		assertEquals( Collections.singleton( "a/notes.txt" ),
+				repository.find( "apple" ).getLocations().keySet() );
+		assertEquals( Collections.singleton( "b/notes.txt" ),
+				repository.find( "banana" ).getLocations().keySet() );
+		assertNotNull( repository.getFileRecord( "a/notes.txt" ) );
+		assertNotNull( repository.getFileRecord( "b/notes.txt" ) );
+
+		repository.getDirtyWords().clear();
+		assertTrue( run( dir.toString(), "-pl", "-stats" ) );
+		assertTrue( "Unchanged files were indexed again.", repository.getDirtyWords().isEmpty() );
+		assertTrue( err.toString( "UTF-8" ).contains( "(2 unchanged, skipped)" ) );
+		WordInfo apple = repository.find( "apple" );
+		assertEquals( 1, apple.getCount() );
+	}
+
+	/**
+	 * A file is hashed while it is indexed, so the same content is skipped
+	 * the next time, while a change that keeps the size is still noticed.
+	 */
+	@Test
+	public void testChangeOfSameSizeIndexed() throws IOException
+	{
+		Path file = folder.newFile( "notes.txt" ).toPath();
+		write( file, "apple\n" );
+		assertTrue( run( file.toString(), "-pl" ) );
+		assertTrue( FileRecord.of( file ).sameContent( repository.getFileRecord( "notes.txt" ) ) );
+
+		repository.getDirtyWords().clear();
+		assertTrue( run( file.toString(), "-pl" ) );
+		assertTrue( "An unchanged file was indexed again.", repository.getDirtyWords().isEmpty() );
+
+		write( file, "mango\n" );
+		assertTrue( run( file.toString(), "-pl" ) );
+		assertNull( repository.find( "apple" ) );
+		assertEquals( 1, repository.find( "mango" ).getCount() );
+	}
+
+	/**
+	 * A file indexed in memory-mapped chunks gets the same hash as one read
+	 * in full, so it is skipped by the next ingest in either mode.
+	 */
+	@Test
+	public void testMappedFileHashed() throws IOException
+	{
+		Path file = folder.newFile( "big.txt" ).toPath();
+		StringBuilder text = new StringBuilder();
+		for( int i = 0; i < 20000; i++ )
+		{
+			text.append( "line " ).append( i % 2 == 0 ? "even" : "odd" ).append( '\n' );
+		}
+		write( file, text.toString() );
+		assertTrue( run( file.toString(), "-pc", "-mmap" ) );
+		assertTrue( FileRecord.of( file ).sameContent( repository.getFileRecord( "big.txt" ) ) );
+
+		repository.getDirtyWords().clear();
+		assertTrue( run( file.toString(), "-pc" ) );
+		assertTrue( run( file.toString(), "-pc", "-mmap" ) );
+		assertTrue( "An unchanged file was indexed again.", repository.getDirtyWords().isEmpty() );
+		assertEquals( 10000, repository.find( "odd" ).getCount() );
+	}
+
+	/**
+	 * Two plain file arguments with the same name would be recorded under the
+	 * same name, so the command is rejected instead of one silently replacing
+	 * the other.
+	 */
+	@Test
+	public void testSameNameRejected() throws IOException
+	{
+		Path dir = folder.newFolder( "docs" ).toPath();
+		write( dir.resolve( "a/notes.txt" ), "apple\n" );
+		write( dir.resolve( "b/notes.txt" ), "banana\n" );
+
+		assertFalse( run( dir.resolve( "a/notes.txt" ).toString(), dir.resolve( "b/notes.txt" ).toString(), "-pl" ) );
+		assertTrue( err.toString( "UTF-8" ).contains( "would both be recorded as notes.txt" ) );
+		assertTrue( repository.getTree().isEmpty() );
+	}
+
+	/**
+	 * A report written to a file is patched after the next ingest: entries of
+	 * untouched words are copied from the old report as they are, touched
+	 * ones are rendered again. A report rendered from another repository
+	 * whose generation happens to match is rendered from scratch instead.
+	 */
+	@Test
+	public void testReportPatchedOnlyForSameRepository() throws IOException
+	{
+		Path first = folder.newFile( "first.txt" ).toPath();
+		Path second = folder.newFile( "second.txt" ).toPath();
+		Path report = folder.getRoot().toPath().resolve( "report.txt" );
+		// enough untouched words for patching to pay off
+		write( first, "apple banana date elder fig grape kiwi lemon mango\n" );
+		write( second, "banana cherry\n" );
+
+		assertTrue( run( first.toString(), "-pl", "-f" + report ) );
+		// mark an entry the next ingest does not touch; only a patch keeps it
+		String marked = read( report ).replace( "===apple===", "===APPLE===" );
+		write( report, marked );
+		assertTrue( run( second.toString(), "-pl", "-f" + report ) );
+		String patched = read( report );
+		assertTrue( "The report was not patched.", patched.contains( "===APPLE===" ) );
+		assertTrue( patched.contains( "===banana=== found in file: first.txt on lines: 1, found in file: second.txt" ) );
+		assertTrue( patched.contains( "===cherry=== found in file: second.txt" ) );
+
+		// another repository, large enough to patch, at the generation the
+		// report was rendered from
+		Path third = folder.newFile( "third.txt" ).toPath();
+		write( third, "hazel iris juniper laurel maple nettle oak pine rowan\n" );
+		long generation = repository.getGeneration();
+		repository = new Repository();
+		assertTrue( run( third.toString(), "-pl" ) );
+		while( repository.getGeneration() < generation )
+		{
+			repository.nextGeneration();
+		}
+		assertTrue( run( second.toString(), "-pl", "-f" + report ) );
+		String rendered = read( report );
+		assertFalse( "A report of another repository was patched.", rendered.contains( "apple" ) );
+		assertFalse( rendered.contains( "APPLE" ) );
+		assertTrue( rendered.contains( "===cherry=== found in file: second.txt" ) );
+	}
+
+	/**
+	 * Query answers and word listings show hello and kitty capitalized, the
+	 * same way the reports do.
+	 */
+	@Test
+	public void testQueryAndListingDisplayWords() throws IOException
+	{
+		Path file = folder.newFile( "cat.txt" ).toPath();
+		write( file, "hello kitty\nhello\n" );
+		assertTrue( run( file.toString(), "-pl" ) );
+
+		out.reset();
+		assertTrue( run( "-q", "hello,hello+kitty,tiger" ) );
+		String answers = out.toString( "UTF-8" );
+		assertTrue( answers.contains( "Key : ===Hello=== found in file: cat.txt on lines: 1,2," ) );
+		assertTrue( answers.contains( "Key : ===Hello+Kitty=== found in file: cat.txt on lines: 1," ) );
+		assertTrue( answers.contains( "Key : ===tiger=== not found" ) );
+
+		out.reset();
+		assertTrue( run( "-words", file.toString() ) );
+		String listing = out.toString( "UTF-8" );
+		assertTrue( listing.contains( "Key : ===Hello=== found in file: cat.txt on lines: 1,2," ) );
+		assertTrue( listing.contains( "Key : ===Kitty=== found in file: cat.txt on lines: 1," ) );
+	}
+
+	/**
+	 * Saving replaces the repository file through a temporary file that does
+	 * not outlive the save.
+	 */
+	@Test
+	public void testSaveReplacesRepository() throws IOException, ClassNotFoundException
+	{
+		Path file = folder.newFile( "cat.txt" ).toPath();
+		write( file, "hello kitty\n" );
+		File repo = folder.newFile( "repository.ser" );
+		WordTracker.saveRepository( repository, repo );
+		assertTrue( run( file.toString(), "-pl" ) );
+		WordTracker.saveRepository( repository, repo );
+
+		assertFalse( Files.exists( repo.toPath().resolveSibling( "repository.ser.tmp" ) ) );
+		Repository loaded = WordTracker.loadRepository( repo );
+		assertEquals( repository.getId(), loaded.getId() );
+		assertNotNull( loaded.find( "kitty" ) );
+	}
+
+	/**
+	 * Occurrence counts and the frequency index are saved with the
+	 * repository, so a loaded repository ranks its words without counting
+	 * them again.
+	 */
+	@Test
+	public void testFrequenciesSavedWithRepository() throws IOException, ClassNotFoundException
+	{
+		Path file = folder.newFile( "cat.txt" ).toPath();
+		write( file, "hello kitty\nhello cat\nhello kitty\n" );
+		assertTrue( run( file.toString(), "-pl" ) );
+		File repo = folder.newFile( "repository.ser" );
+		WordTracker.saveRepository( repository, repo );
+
+		Repository loaded = WordTracker.loadRepository( repo );
+		assertEquals( 3, loaded.find( "hello" ).getCount() );
+		assertEquals( repository.getFrequencyIndex().top( 3 ), loaded.getFrequencyIndex().top( 3 ) );
+		assertEquals( "hello", loaded.getFrequencyIndex().top( 1 ).get( 0 ).getKey() );
+	}
+
+	/**
+	 * A copy of a word held in an arena keeps its packed prefix, so
+	 * comparisons with the copy still take the prefix fast path.
+	 */
+	@Test
+	public void testCopyKeepsPrefix()
+	{
+		WordInfo word = new WordInfo( "apple" );
+		word.addOccurrence( "fruit.txt", 1 );
+		WordInfo stored = word.storeIn( new WordArena() );
+		WordInfo copy = stored.copy();
+
+		assertEquals( WordInfo.prefix( "apple" ), copy.getPrefix() );
+		assertEquals( "apple", copy.getWord() );
+		assertEquals( 1, copy.getCount() );
+		assertEquals( 0, copy.compareTo( new WordInfo( "apple" ) ) );
+	}
+
+	/**
+	 * With the words in an arena, the file and frequency indexes refer to
+	 * the arena too instead of holding Strings, and a changed file, the -pc
+	 * report and a save and load work as with Strings.
+	 */
+	@Test
+	public void testArenaIndexesHoldNoStrings() throws IOException, ClassNotFoundException
+	{
+		Path first = folder.newFile( "first.txt" ).toPath();
+		Path second = folder.newFile( "second.txt" ).toPath();
+		write( first, "hello kitty\nhello apple\n" );
+		write( second, "apple banana\n" );
+		assertTrue( run( first.toString(), second.toString(), "-pl" ) );
+		repository.useArena();
+		write( first, "hello hello cherry\n" );
+		out.reset();
+		assertTrue( run( first.toString(), "-pc" ) );
+
+		assertTrue( out.toString( "UTF-8" ).contains( "Key : ===Hello=== occurrences: 2" ) );
+		assertNull( repository.find( "kitty" ) );
+		assertEquals( Collections.singleton( "second.txt" ), repository.find( "apple" ).getLocations().keySet() );
+		assertEquals( 2, repository.getWordsInFile( "first.txt" ).size() );
+		for( CharSequence word : repository.getWordsInFile( "first.txt" ) )
+		{
+			assertTrue( word instanceof WordArena.Word );
+		}
+		assertTrue( repository.getFrequencyIndex().top( 1 ).get( 0 ).getKey() instanceof WordArena.Word );
+		assertTrue( repository.getDirtyWords().contains( repository.find( "cherry" ).getKey() ) );
+
+		File repo = folder.newFile( "repository.ser" );
+		WordTracker.saveRepository( repository, repo );
+		Repository loaded = WordTracker.loadRepository( repo );
+		assertEquals( "hello", loaded.getFrequencyIndex().top( 1 ).get( 0 ).getKey() );
+		assertEquals( new HashSet<>( Arrays.asList( "hello", "cherry" ) ),
+				loaded.getWordsInFile( "first.txt" ) );
+	}
+
+	/**
+	 * Under -maxwords the rarest words are evicted to the cold store while
+	 * the files are ingested, and queries with -cold answer from it. When a
+	 * file is ingested again its archived postings are left out.
+	 */
+	@Test
+	public void testEvictedWordsArchived() throws IOException
+	{
+		Path dir = folder.newFolder( "logs" ).toPath();
+		write( dir.resolve( "a.txt" ), "error error error\nwarning warning\nrare\n" );
+		write( dir.resolve( "b.txt" ), "error warning\nodd\n" );
+		String cold = folder.getRoot().toPath().resolve( "cold.bin" ).toString();
+
+		assertTrue( run( dir.toString(), "-pc", "-maxwords", "2", "-cold", cold, "-stats" ) );
+		assertEquals( 2, repository.getTree().size() );
+		assertNull( repository.find( "rare" ) );
+		assertTrue( err.toString( "UTF-8" ).contains( "evicted words" ) );
+
+		out.reset();
+		assertTrue( run( "-q", "rare,odd,error", "-cold", cold ) );
+		String answers = out.toString( "UTF-8" );
+		assertTrue( answers.contains( "Key : ===rare=== found in file: a.txt on lines: 3," ) );
+		assertTrue( answers.contains( "Key : ===odd=== found in file: b.txt on lines: 2," ) );
+		assertTrue( answers.contains( "Key : ===error=== found in file: a.txt on lines: 1, found in file: b.txt on lines: 1," ) );
+
+		write( dir.resolve( "a.txt" ), "error error error\nwarning warning\nfresh\n" );
+		assertTrue( run( dir.toString(), "-pc", "-maxwords", "2", "-cold", cold ) );
+		out.reset();
+		assertTrue( run( "-q", "rare,fresh", "-cold", cold ) );
+		answers = out.toString( "UTF-8" );
+		assertTrue( answers.contains( "Key : ===rare=== not found" ) );
+		assertTrue( answers.contains( "Key : ===fresh=== found in file: a.txt on lines: 3," ) );
+	}
+
+	/**
+	 * A tail ingest reads a line that had no terminator yet again in full,
+	 * taking back what was recorded for it, so its words are not counted
+	 * twice.
+	 */
+	@Test
+	public void testTailRetractsIncompleteLine() throws IOException
+	{
+		Path log = folder.newFile( "app.log" ).toPath();
+		write( log, "start\nalpha beta" );
+		assertTrue( run( log.toString(), "-pl", "-tail" ) );
+		append( log, " gamma\ndelta\n" );
+		assertTrue( run( log.toString(), "-pl", "-tail" ) );
+
+		assertEquals( Arrays.asList( 2 ), repository.find( "beta" ).getLocations().get( "app.log" ) );
+		assertEquals( 1, repository.find( "alpha" ).getCount() );
+		assertEquals( Arrays.asList( 2 ), repository.find( "gamma" ).getLocations().get( "app.log" ) );
+		assertEquals( Arrays.asList( 3 ), repository.find( "delta" ).getLocations().get( "app.log" ) );
+	}
+
+	/**
+	 * A "\r\n" whose "\n" is appended after a tail ingest ends one line, not
+	 * two.
+	 */
+	@Test
+	public void testTailCrlfSplit() throws IOException
+	{
+		Path log = folder.newFile( "app.log" ).toPath();
+		write( log, "one\r" );
+		assertTrue( run( log.toString(), "-pl", "-tail" ) );
+		append( log, "\ntwo\r\nthree\r\n" );
+		assertTrue( run( log.toString(), "-pl", "-tail" ) );
+
+		assertEquals( Arrays.asList( 1 ), repository.find( "one" ).getLocations().get( "app.log" ) );
+		assertEquals( Arrays.asList( 2 ), repository.find( "two" ).getLocations().get( "app.log" ) );
+		assertEquals( Arrays.asList( 3 ), repository.find( "three" ).getLocations().get( "app.log" ) );
+	}
+
+	// Runs one command line against the in-memory repository
+	private boolean run( String... args ) throws IOException
+	{
+		return WordTracker.run( args, repository, new PrintStream( out, true, "UTF-8" ),
+				new PrintStream( err, true, "UTF-8" ) );
+	}
+
+	private static String read( Path file ) throws IOException
+	{
+		return new String( Files.readAllBytes( file ), StandardCharsets.UTF_8 );
+	}
+
+	private static void append( Path file, String text ) throws IOException
+	{
+		Files.write( file, text.getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.APPEND );
+	}
+
+	private static void write( Path file, String text ) throws IOException
+	{
+		Files.createDirectories( file.getParent() );
+		Files.write( file, text.getBytes( StandardCharsets.UTF_8 ) );
+	}
+}
@@ -10,6 +10,8 @@ import utilities.Iterator;
 
 import implementations.BSTree;
 import implementations.BSTreeNode;
+import implementations.FrozenTree;
+import implementations.TreeStats;
 
 /**
  * @author kitty, maryam
@@ -607,4 +609,367 @@ public class BSTreeTest
 	{
 		assertNull( "Failed to return maximum value.", tree.removeMax() );
 	}
+
+	/**
+	 * Test method for {@link implementations.BSTree#BSTree(BSTree)} to copy a
+	 * tree with the same shape, independent of the original.
+	 */
+	@Test
+	public void testCopyConstructor()
+	{
+		tree.add( four );
+		tree.add( two );
+		tree.add( six );
+		tree.add( one );
+		tree.add( five );
+
+		BSTree<Integer> copy = new BSTree<Integer>( tree );
+		assertEquals( "Failed to copy size.", tree.size(), copy.size() );
+		assertEquals( "Failed to copy height.", tree.getHeight(), copy.getHeight() );
+
+		Integer[] shouldBe = { four, two, one, six, five };
+		Iterator<Integer> it = copy.preorderIterator();
+		int i = 0;
+		while( it.hasNext() )
+		{
+			assertSame( "Copy does not have the same shape.", shouldBe[i++], it.next() );
+		}
+
+		copy.add( seven );
+		copy.removeMin();
+		assertFalse( "Original changed when the copy was modified.", tree.contains( seven ) );
+		assertTrue( "Original changed when the copy was modified.", tree.contains( one ) );
+		assertEquals( "Original size changed.", 5, tree.size() );
+	}
+
+	/**
+	 * Test method for {@link implementations.BSTree#getStats()} to describe the
+	 * shape of the tree.
+	 */
+	@Test
+	public void testGetStats()
+	{
+		tree.add( four );
+		tree.add( two );
+		tree.add( six );
+		tree.add( one );
+		tree.add( five );
+		tree.add( seven );
+		tree.add( three );
+
+		TreeStats stats = tree.getStats();
+		int[] expectedHistogram = { 0, 1, 2, 4 };
+		assertEquals( "Failed to count nodes.", 7, stats.getSize() );
+		assertArrayEquals( "Failed to count nodes per depth.", expectedHistogram, stats.getDepthHistogram() );
+		assertEquals( "Failed to compute the average path.", 17.0 / 7, stats.getAveragePathLength(), 1e-9 );
+		assertEquals( "Failed to compute the maximum path.", 3, stats.getMaxPathLength() );
+		assertEquals( "Failed to count leaves.", 4, stats.getLeafCount() );
+		assertEquals( "Failed to compute the imbalance.", 0, stats.getMaxImbalance() );
+	}
+
+	/**
+	 * Test method for {@link implementations.BSTree#getStats()} on a tree built
+	 * from sorted elements, which is a chain.
+	 */
+	@Test
+	public void testGetStatsDegenerate()
+	{
+		for( int i = 0; i < 5000; i++ )
+		{
+			tree.add( i );
+		}
+
+		TreeStats stats = tree.getStats();
+		assertEquals( "Failed to compute the maximum path.", 5000, stats.getMaxPathLength() );
+		assertEquals( "Failed to compute the average path.", 2500.5, stats.getAveragePathLength(), 1e-9 );
+		assertEquals( "Failed to count leaves.", 1, stats.getLeafCount() );
+		assertEquals( "Failed to compute the imbalance at the root.", -4999, stats.getRootImbalance() );
+		assertEquals( "Failed to count unbalanced subtrees.", 4998, stats.getUnbalancedNodes() );
+		assertEquals( "Failed to compute the height.", 5000, tree.getHeight() );
+	}
+
+	/**
+	 * Test method for {@link implementations.BSTree#getStats()} on an empty
+	 * tree.
+	 */
+	@Test
+	public void testGetStatsEmpty()
+	{
+		TreeStats stats = tree.getStats();
+		assertEquals( "Failed to count nodes.", 0, stats.getSize() );
+		assertEquals( "Failed to compute the maximum path.", 0, stats.getMaxPathLength() );
+		assertEquals( "Failed to compute the average path.", 0.0, stats.getAveragePathLength(), 0 );
+	}
+
+	/**
+	 * Test method for {@link implementations.BSTree#rebalance()} to rebuild a
+	 * chain into a balanced tree with the same elements.
+	 */
+	@Test
+	public void testRebalance()
+	{
+		for( int i = 1; i <= 1023; i++ )
+		{
+			tree.add( i );
+		}
+
+		tree.rebalance();
+		assertEquals( "Failed to keep the size.", 1023, tree.size() );
+		assertEquals( "Failed to balance the tree.", 10, tree.getHeight() );
+		assertEquals( "Failed to pick the middle as root.", 512, (int) tree.getRoot().getElement() );
+		assertEquals( "Failed to balance the tree.", 0, tree.getStats().getUnbalancedNodes() );
+
+		Iterator<Integer> it = tree.inorderIterator();
+		int expected = 1;
+		while( it.hasNext() )
+		{
+			assertEquals( "Failed to keep the elements in order.", expected++, (int) it.next() );
+		}
+		assertEquals( "Failed to keep every element.", 1024, expected );
+		assertTrue( tree.contains( 700 ) );
+		assertFalse( tree.contains( 0 ) );
+	}
+
+	/**
+	 * Test method for {@link implementations.BSTree#remove(Comparable)} to
+	 * remove a leaf, a node with one child and a node with two children.
+	 */
+	@Test
+	public void testRemove()
+	{
+		tree.add( four );
+		tree.add( two );
+		tree.add( six );
+		tree.add( one );
+		tree.add( five );
+		tree.add( seven );
+		tree.add( three );
+
+		assertTrue( "Failed to remove a leaf.", tree.remove( one ) );
+		assertFalse( tree.contains( one ) );
+		tree.remove( seven );
+		assertTrue( "Failed to remove a node with one child.", tree.remove( six ) );
+		assertTrue( "Failed to remove the root.", tree.remove( four ) );
+		assertEquals( "Failed to update size.", 3, tree.size() );
+
+		Integer[] shouldBe = { two, three, five };
+		Iterator<Integer> it = tree.inorderIterator();
+		int i = 0;
+		while( it.hasNext() )
+		{
+			assertEquals( "Failed to keep the remaining elements in order.", shouldBe[i++], it.next() );
+		}
+		assertEquals( 3, i );
+	}
+
+	/**
+	 * Test method for {@link implementations.BSTree#remove(Comparable)} to
+	 * return false for a missing element and leave the tree unchanged.
+	 */
+	@Test
+	public void testRemoveMissing()
+	{
+		tree.add( four );
+		tree.add( two );
+
+		assertFalse( "Removed an element that was not there.", tree.remove( six ) );
+		assertEquals( "Failed to keep size.", 2, tree.size() );
+		assertTrue( tree.remove( two ) );
+		assertTrue( tree.remove( four ) );
+		assertTrue( "Failed to empty the tree.", tree.isEmpty() );
+		assertFalse( tree.remove( four ) );
+	}
+
+	/**
+	 * Test method for {@link implementations.BSTree#freeze()} to find every
+	 * element of the tree, and no others, in frozen copies of every size up
+	 * to 40.
+	 */
+	@Test
+	public void testFreeze()
+	{
+		for( int n = 0; n <= 40; n++ )
+		{
+			BSTree<Integer> sized = new BSTree<Integer>();
+			for( int i = 0; i < n; i++ )
+			{
+				sized.add( ( i * 7919 ) % n * 10 ); // 7919 is prime, so every element once
+			}
+			FrozenTree<Integer> frozen = sized.freeze();
+			assertEquals( "Failed to keep size.", n, frozen.size() );
+			for( int i = 0; i < n; i++ )
+			{
+				assertEquals( "Failed to find an element.", Integer.valueOf( i * 10 ), frozen.search( i * 10 ) );
+				assertNull( "Found a missing element.", frozen.search( i * 10 + 5 ) );
+				assertEquals( "Failed to find the ceiling.", i + 1 < n ? Integer.valueOf( i * 10 + 10 ) : null,
+						frozen.ceiling( i * 10 + 5 ) );
+			}
+			assertNull( frozen.search( -5 ) );
+			assertEquals( n == 0 ? null : Integer.valueOf( 0 ), frozen.ceiling( -5 ) );
+
+			Iterator<Integer> it = frozen.inorderIterator();
+			int i = 0;
+			while( it.hasNext() )
+			{
+				assertEquals( "Failed to iterate in order.", Integer.valueOf( i++ * 10 ), it.next() );
+			}
+			assertEquals( n, i );
+		}
+	}
+
+	/**
+	 * Test method for {@link implementations.BSTree#freeze()} to not see
+	 * changes made to the tree afterwards.
+	 */
+	@Test
+	public void testFreezeIsACopy()
+	{
+		tree.add( four );
+		tree.add( two );
+		FrozenTree<Integer> frozen = tree.freeze();
+		tree.add( six );
+		tree.remove( two );
+
+		assertEquals( 2, frozen.size() );
+		assertTrue( frozen.contains( two ) );
+		assertFalse( frozen.contains( six ) );
+	}
+
+	/**
+	 * Test method for {@link implementations.BSTree#pollMin(int)} to remove
+	 * the smallest elements in ascending order and keep the rest searchable.
+	 */
+	@Test
+	public void testPollMin()
+	{
+		tree.add( four );
+		tree.add( two );
+		tree.add( six );
+		tree.add( one );
+		tree.add( three );
+		tree.add( five );
+		tree.add( seven );
+
+		assertEquals( "Failed to poll in ascending order.", java.util.Arrays.asList( one, two, three, four ),
+				tree.pollMin( 4 ) );
+		assertEquals( "Failed to update size.", 3, tree.size() );
+		assertFalse( tree.contains( four ) );
+		assertTrue( tree.contains( five ) );
+
+		Integer[] shouldBe = { five, six, seven };
+		Iterator<Integer> it = tree.inorderIterator();
+		int i = 0;
+		while( it.hasNext() )
+		{
+			assertEquals( "Failed to keep the remaining elements in order.", shouldBe[i++], it.next() );
+		}
+		assertEquals( 3, i );
+
+		assertTrue( tree.pollMin( 0 ).isEmpty() );
+		assertEquals( "Failed to return what was left.", java.util.Arrays.asList( five, six, seven ),
+				tree.pollMin( 10 ) );
+		assertTrue( "Failed to empty the tree.", tree.isEmpty() );
+		assertTrue( tree.pollMin( 1 ).isEmpty() );
+	}
+
+	/**
+	 * Test method for {@link implementations.BSTree#pollMax(int)} to remove
+	 * the largest elements in descending order.
+	 */
+	@Test
+	public void testPollMax()
+	{
+		tree.add( four );
+		tree.add( two );
+		tree.add( six );
+		tree.add( one );
+		tree.add( three );
+		tree.add( five );
+		tree.add( seven );
+
+		assertEquals( "Failed to poll in descending order.", java.util.Arrays.asList( seven, six, five ),
+				tree.pollMax( 3 ) );
+		assertEquals( "Failed to update size.", 4, tree.size() );
+		assertEquals( "Failed to keep the maximum reachable.", four, tree.removeMax().getData() );
+		assertEquals( one, tree.removeMin().getData() );
+		assertTrue( tree.contains( two ) );
+		assertTrue( tree.contains( three ) );
+	}
+
+	/**
+	 * Test method for {@link implementations.BSTree#pollMin(int)} to poll
+	 * every prefix of random trees correctly, and to handle a degenerate
+	 * tree without recursion.
+	 */
+	@Test
+	public void testPollMinRandom()
+	{
+		java.util.Random random = new java.util.Random( 42 );
+		for( int n = 1; n <= 30; n++ )
+		{
+			for( int k = 0; k <= n; k++ )
+			{
+				BSTree<Integer> sized = new BSTree<Integer>();
+				java.util.List<Integer> values = new java.util.ArrayList<Integer>();
+				for( int i = 0; i < n; i++ )
+				{
+					values.add( i );
+				}
+				java.util.Collections.shuffle( values, random );
+				for( Integer value : values )
+				{
+					sized.add( value );
+				}
+				java.util.List<Integer> polled = sized.pollMin( k );
+				assertEquals( k, polled.size() );
+				for( int i = 0; i < k; i++ )
+				{
+					assertEquals( Integer.valueOf( i ), polled.get( i ) );
+				}
+				assertEquals( n - k, sized.size() );
+				Iterator<Integer> it = sized.inorderIterator();
+				for( int i = k; i < n; i++ )
+				{
+					assertEquals( Integer.valueOf( i ), it.next() );
+				}
+				assertFalse( it.hasNext() );
+			}
+		}
+
+		BSTree<Integer> degenerate = new BSTree<Integer>();
+		for( int i = 0; i < 5000; i++ )
+		{
+			degenerate.add( i );
+		}
+		assertEquals( Integer.valueOf( 4999 ), degenerate.pollMax( 2500 ).get( 0 ) );
+		assertEquals( Integer.valueOf( 0 ), degenerate.pollMin( 1 ).get( 0 ) );
+		assertEquals( Integer.valueOf( 1 ), degenerate.removeMin().getData() );
+		assertEquals( 2498, degenerate.size() );
+	}
+
+	/**
+	 * Test method for {@link implementations.BSTree#descendingIterator()} to
+	 * return the elements from largest to smallest.
+	 */
+	@Test
+	public void testDescendingIterator()
+	{
+		tree.add( four );
+		tree.add( two );
+		tree.add( six );
+		tree.add( one );
+		tree.add( three );
+		tree.add( five );
+		tree.add( seven );
+
+		Integer[] shouldBe = { seven, six, five, four, three, two, one };
+		Iterator<Integer> it = tree.descendingIterator();
+		int i = 0;
+		while( it.hasNext() )
+		{
+			assertEquals( "Failed to iterate in descending order.", shouldBe[i++], it.next() );
+		}
+		assertEquals( 7, i );
+		assertFalse( new BSTree<Integer>().descendingIterator().hasNext() );
+	}
 }